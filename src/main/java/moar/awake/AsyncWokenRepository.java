@@ -0,0 +1,109 @@
+package moar.awake;
+
+import static moar.sugar.thread.MoarThreadSugar.$;
+import java.util.List;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import moar.sugar.thread.MoarAsyncProvider;
+import moar.sugar.thread.MoarThreadSugar;
+
+/**
+ * Asynchronous view of a repository.
+ * <p>
+ * Calls run on a {@link MoarAsyncProvider} through {@link MoarThreadSugar} so
+ * their cost is part of any <code>$$</code> report for the calling activity.
+ * The number of calls running at once is capped by the size of the connection
+ * pool so extra calls wait for a permit instead of for a connection.
+ *
+ * @param <Row>
+ *   Row type
+ */
+public class AsyncWokenRepository<Row> {
+  private final WokenRepository<Row> repository;
+  private final MoarAsyncProvider provider;
+  private final Semaphore permits;
+  private final String desc;
+
+  AsyncWokenRepository(WokenRepository<Row> repository, MoarAsyncProvider provider, Semaphore permits,
+      String tableName) {
+    this.repository = repository;
+    this.provider = provider;
+    this.permits = permits;
+    desc = "woke " + tableName + " ";
+  }
+
+  private <T> CompletableFuture<T> async(String op, Callable<T> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Vector<Future<Object>> futures = $();
+    $(provider, futures, () -> {
+      try {
+        permits.acquire();
+        try {
+          result.complete(WokeRepository.track(desc + op, call));
+        } finally {
+          permits.release();
+        }
+      } catch (Throwable t) {
+        result.completeExceptionally(t);
+      }
+      return null;
+    });
+    return result;
+  }
+
+  /**
+   * @param where
+   *   Sets the values rows must match.
+   * @return future for the first matching row (or null)
+   */
+  public CompletableFuture<Row> findAsync(Consumer<Row> where) {
+    return async("find", () -> repository.where(where).find());
+  }
+
+  public CompletableFuture<Row> findAsync(Long id) {
+    return async("find", () -> repository.id(id).find());
+  }
+
+  public CompletableFuture<Row> findAsync(String id) {
+    return async("find", () -> repository.id(id).find());
+  }
+
+  public CompletableFuture<Row> findAsync(UUID id) {
+    return async("find", () -> repository.id(id).find());
+  }
+
+  public CompletableFuture<Void> insertBatchAsync(List<Row> rows) {
+    return insertBatchAsync(rows, new WokeBatchOptions());
+  }
+
+  public CompletableFuture<Void> insertBatchAsync(List<Row> rows, WokeBatchOptions options) {
+    return async("insertBatch", () -> {
+      repository.insertBatch(rows, options);
+      return null;
+    });
+  }
+
+  /**
+   * @param where
+   *   Where clause (or tableish)
+   * @param params
+   *   Parameters
+   * @return future for the rows
+   */
+  public CompletableFuture<List<Row>> listAsync(String where, Object... params) {
+    return async("list", () -> repository.list(where, params));
+  }
+
+  public CompletableFuture<Row> upsertAsync(Consumer<Row> updator) {
+    return async("upsert", () -> repository.upsert(updator));
+  }
+
+  public CompletableFuture<Row> upsertAsync(Row row) {
+    return async("upsert", () -> repository.upsert(row));
+  }
+}
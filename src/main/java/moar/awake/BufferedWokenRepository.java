@@ -0,0 +1,249 @@
+package moar.awake;
+
+import static moar.awake.InterfaceUtil.asWokeProxy;
+import static moar.sugar.Sugar.asRuntimeException;
+import static moar.sugar.Sugar.require;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import moar.awake.WokeBufferOptions.Backpressure;
+import moar.sugar.MoarException;
+import moar.sugar.MoarLogger;
+
+/**
+ * Write-behind view of a repository.
+ * <p>
+ * Inserts and upserts are added to a bounded buffer and return at once. A
+ * background thread writes the buffer with batch statements when it holds
+ * {@link WokeBufferOptions#flushRows(int)} rows or when the oldest row has
+ * waited {@link WokeBufferOptions#flushMillis(long)}. A buffered upsert of a
+ * row with the same id as a pending upsert replaces it. Each flush writes the
+ * inserts before the upserts.
+ * <p>
+ * A failed flush is logged and thrown from the next {@link #flush()} or
+ * {@link #close()}.
+ *
+ * @param <Row>
+ *   Row type
+ */
+public class BufferedWokenRepository<Row>
+    implements
+    AutoCloseable {
+  private static MoarLogger LOG = new MoarLogger(BufferedWokenRepository.class);
+
+  private final WokenRepository<Row> repository;
+  private final WokeBufferOptions options;
+  private final Object lock = new Object();
+  private final Thread flusher;
+  private List<Row> inserts = new ArrayList<>();
+  private Map<Object, Row> upserts = new LinkedHashMap<>();
+  private int size;
+  private long firstAt;
+  private long requested;
+  private long completed;
+  private boolean closed;
+  private Throwable failure;
+  private long dropped;
+  private long coalesced;
+  private long written;
+
+  BufferedWokenRepository(WokenRepository<Row> repository, WokeBufferOptions options, String tableName) {
+    this.repository = repository;
+    this.options = options;
+    flusher = new Thread(this::run, "woke " + tableName + " buffer");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  private void add(Row row, boolean isUpsert) {
+    if (!offer(row, isUpsert)) {
+      if (isUpsert) {
+        repository.upsert(row);
+      } else {
+        repository.insert(row);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      closed = true;
+      lock.notifyAll();
+    }
+    require(() -> flusher.join());
+    throwFailure();
+  }
+
+  /**
+   * Write the rows buffered before this call and wait for them.
+   */
+  public void flush() {
+    synchronized (lock) {
+      long target = ++requested;
+      lock.notifyAll();
+      while (completed < target && flusher.isAlive()) {
+        require(() -> lock.wait());
+      }
+    }
+    throwFailure();
+  }
+
+  /**
+   * @return Upserts that replaced a pending upsert of the same id.
+   */
+  public long getCoalesced() {
+    synchronized (lock) {
+      return coalesced;
+    }
+  }
+
+  /**
+   * @return Rows discarded because the buffer was full.
+   */
+  public long getDropped() {
+    synchronized (lock) {
+      return dropped;
+    }
+  }
+
+  /**
+   * @return Rows waiting to be written.
+   */
+  public int getPending() {
+    synchronized (lock) {
+      return size;
+    }
+  }
+
+  /**
+   * @return Rows written by the flusher.
+   */
+  public long getWritten() {
+    synchronized (lock) {
+      return written;
+    }
+  }
+
+  public void insert(Consumer<Row> updator) {
+    add(repository.define(updator), false);
+  }
+
+  public void insert(Row row) {
+    add(row, false);
+  }
+
+  /**
+   * @return False when the caller should write the row.
+   */
+  private boolean offer(Row row, boolean isUpsert) {
+    Object id = isUpsert ? RowSchema.normalizeId(asWokeProxy(row).getIdValue()) : null;
+    synchronized (lock) {
+      while (true) {
+        if (closed) {
+          throw new MoarException("buffer is closed");
+        }
+        if (id != null && upserts.containsKey(id)) {
+          upserts.put(id, row);
+          coalesced++;
+          return true;
+        }
+        if (size < options.getMaxRows()) {
+          break;
+        }
+        Backpressure backpressure = options.getBackpressure();
+        if (backpressure == Backpressure.DROP) {
+          dropped++;
+          return true;
+        } else if (backpressure == Backpressure.CALLER_RUNS) {
+          return false;
+        }
+        require(() -> lock.wait());
+      }
+      if (isUpsert) {
+        upserts.put(id == null ? new Object() : id, row);
+      } else {
+        inserts.add(row);
+      }
+      if (size++ == 0) {
+        // wake the flusher to start the timer
+        firstAt = System.currentTimeMillis();
+        lock.notifyAll();
+      } else if (size >= options.getFlushRows()) {
+        lock.notifyAll();
+      }
+      return true;
+    }
+  }
+
+  private void run() {
+    while (true) {
+      List<Row> insertRows;
+      List<Row> upsertRows;
+      long target;
+      synchronized (lock) {
+        while (!closed && requested == completed && size < options.getFlushRows()) {
+          long wait = size == 0 ? 0 : firstAt + options.getFlushMillis() - System.currentTimeMillis();
+          if (size > 0 && wait <= 0) {
+            break;
+          }
+          require(() -> lock.wait(wait));
+        }
+        if (closed && size == 0) {
+          completed = requested;
+          lock.notifyAll();
+          return;
+        }
+        target = requested;
+        insertRows = inserts;
+        upsertRows = new ArrayList<>(upserts.values());
+        inserts = new ArrayList<>();
+        upserts = new LinkedHashMap<>();
+        size = 0;
+        lock.notifyAll();
+      }
+      int count = 0;
+      try {
+        if (!insertRows.isEmpty()) {
+          repository.insertBatch(insertRows, options.getBatchOptions());
+          count += insertRows.size();
+        }
+        if (!upsertRows.isEmpty()) {
+          repository.upsertBatch(upsertRows, options.getBatchOptions());
+          count += upsertRows.size();
+        }
+      } catch (Throwable t) {
+        LOG.warn("buffer flush failed", insertRows.size() + upsertRows.size() - count, t.getMessage());
+        synchronized (lock) {
+          failure = t;
+        }
+      }
+      synchronized (lock) {
+        written += count;
+        completed = target;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void throwFailure() {
+    Throwable t;
+    synchronized (lock) {
+      t = failure;
+      failure = null;
+    }
+    if (t != null) {
+      throw asRuntimeException(t);
+    }
+  }
+
+  public void upsert(Consumer<Row> updator) {
+    add(repository.define(updator), true);
+  }
+
+  public void upsert(Row row) {
+    add(row, true);
+  }
+}
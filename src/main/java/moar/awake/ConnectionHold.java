@@ -1,6 +1,8 @@
 package moar.awake;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 
 /**
  * A hold on the real connection.
@@ -19,6 +21,31 @@ public interface ConnectionHold
 
   Connection get();
 
-  String getIdentifierQuoteString();
+  /**
+   * @return Facts about the database (captured once per data source by the
+   *   built-in holds, otherwise once per connection).
+   */
+  default WokeDatabaseInfo getDatabaseInfo() {
+    return WokeDatabaseInfo.forConnection(get());
+  }
+
+  default String getIdentifierQuoteString() {
+    return getDatabaseInfo().getIdentifierQuoteString();
+  }
+
+  /**
+   * Prepare a statement that is closed when the caller is done with it.
+   * <p>
+   * Holds for a transaction may return a cached statement, in which case
+   * <code>close()</code> clears the parameters and keeps the statement for
+   * the next caller.
+   */
+  default PreparedStatement prepareStatement(String sql) throws SQLException {
+    return get().prepareStatement(sql);
+  }
+
+  default PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    return get().prepareStatement(sql, columnIndexes);
+  }
 
 }
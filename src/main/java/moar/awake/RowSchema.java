@@ -0,0 +1,440 @@
+package moar.awake;
+
+import static com.google.common.base.CaseFormat.LOWER_CAMEL;
+import static com.google.common.base.CaseFormat.LOWER_UNDERSCORE;
+import static com.google.common.base.CaseFormat.UPPER_CAMEL;
+import static java.util.Collections.unmodifiableList;
+import static moar.sugar.Sugar.asRuntimeException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import moar.sugar.MoarException;
+
+/**
+ * Compiled description of a Row interface.
+ * <p>
+ * Reflection and name conversion happen once per Row interface and identifier
+ * quote. The result is shared by every proxy, {@link WokeRepository} and
+ * {@link WokeSessionBase} that works with the interface.
+ * <p>
+ * Property ordinals do not depend on the quote so values indexed by ordinal
+ * stay valid when a proxy learns the quote of its connection.
+ */
+final class RowSchema {
+  /**
+   * Compiled getter or setter.
+   */
+  static final class Accessor {
+    private final int ordinal;
+    private final Function<Object, Object> reader;
+
+    private Accessor(int ordinal, Function<Object, Object> reader) {
+      this.ordinal = ordinal;
+      this.reader = reader;
+    }
+
+    int getOrdinal() {
+      return ordinal;
+    }
+
+    boolean isGetter() {
+      return reader != null;
+    }
+
+    /**
+     * @return Value converted to the return type of the getter.
+     */
+    Object read(Object value) {
+      return reader.apply(value);
+    }
+  }
+
+  static final String DEFAULT_QUOTE = "`";
+  private static final String ROW_INTERFACE_SUFFIX = "Row";
+  private static final String ID_PROPERTY = "id";
+  private static final Map<Class<?>, Map<String, RowSchema>> schemas = new ConcurrentHashMap<>();
+
+  /**
+   * @return Id in a form that can be compared with ids read from a result
+   *   set (numbers as <code>Long</code>, UUIDs as <code>String</code>).
+   */
+  static Object normalizeId(Object id) {
+    if (id instanceof Number) {
+      return ((Number) id).longValue();
+    } else if (id instanceof UUID) {
+      return id.toString();
+    }
+    return id;
+  }
+
+  /**
+   * Convert a db name (quoted or not) to a property name.
+   */
+  static String convertFromDbName(String key, String quote) {
+    try {
+      StringBuilder s = new StringBuilder();
+      boolean upper = true;
+      char qChar = quote.charAt(0);
+      for (char c : key.toCharArray()) {
+        if (c == qChar) {
+          // ignore
+        } else if (c != '_') {
+          if (upper) {
+            s.append(Character.toUpperCase(c));
+            upper = false;
+          } else {
+            s.append(c);
+          }
+        }
+        if (c == '_') {
+          upper = true;
+        }
+      }
+      return convertToPropertyName(s.toString());
+    } catch (RuntimeException e) {
+      throw new RuntimeException(key, e);
+    }
+  }
+
+  private static String convertToDbName(String string, String q) {
+    return q + UPPER_CAMEL.to(LOWER_UNDERSCORE, string) + q;
+  }
+
+  private static String convertToPropertyName(String name) {
+    if (isAccessor(name)) {
+      name = name.substring(3);
+    }
+    return UPPER_CAMEL.to(LOWER_CAMEL, name);
+  }
+
+  private static boolean isAccessor(String name) {
+    return name.startsWith("get") || name.startsWith("set");
+  }
+
+  static RowSchema of(Class<?> clz, String quote) {
+    Map<String, RowSchema> byQuote = schemas.computeIfAbsent(clz, c -> new ConcurrentHashMap<>());
+    return byQuote.computeIfAbsent(quote, q -> new RowSchema(clz, q));
+  }
+
+  private final Class<?> clz;
+  private final String quote;
+  private final boolean hasIdColumn;
+  private final String[] propertyNames;
+  private final String[] dbNames;
+  private final String[] columnNames;
+  private final Class<?>[] types;
+  private final int idOrdinal;
+  private final String idColumn;
+  private final String tableName;
+  private final List<String> columns;
+  private final List<String> columnsWithoutId;
+  private final Map<String, Integer> byProperty = new HashMap<>();
+  private final Map<String, Integer> byDbName = new HashMap<>();
+  private final Map<String, String> accessorProperties = new HashMap<>();
+  private final Map<Method, Accessor> dispatch = new HashMap<>();
+  private final int[] columnOrdinals;
+  private final int[] columnOrdinalsWithoutId;
+  private final Constructor<?> rowConstructor;
+
+  private RowSchema(Class<?> clz, String quote) {
+    this.clz = clz;
+    this.quote = quote;
+    hasIdColumn = WakeableRow.IdColumn.class.isAssignableFrom(clz);
+
+    // Ordinals follow the unquoted db name so they are the same for any quote.
+    Map<String, String> propertyByDbName = new TreeMap<>();
+    Map<String, Class<?>> typeByProperty = new HashMap<>();
+    List<Method> accessors = new ArrayList<>();
+    for (Method method : clz.getMethods()) {
+      String name = method.getName();
+      if (isAccessor(name)) {
+        accessors.add(method);
+        String propertyName = convertToPropertyName(name);
+        accessorProperties.put(name, propertyName);
+        propertyByDbName.put(UPPER_CAMEL.to(LOWER_UNDERSCORE, propertyName), propertyName);
+        if (name.startsWith("get")) {
+          typeByProperty.put(propertyName, method.getReturnType());
+        } else if (method.getParameterCount() == 1) {
+          typeByProperty.putIfAbsent(propertyName, method.getParameterTypes()[0]);
+        }
+      }
+    }
+    int size = propertyByDbName.size();
+    propertyNames = new String[size];
+    dbNames = new String[size];
+    columnNames = new String[size];
+    types = new Class<?>[size];
+    int ordinal = 0;
+    int id = -1;
+    for (Map.Entry<String, String> entry : propertyByDbName.entrySet()) {
+      String propertyName = entry.getValue();
+      propertyNames[ordinal] = propertyName;
+      dbNames[ordinal] = quote + entry.getKey() + quote;
+      columnNames[ordinal] = entry.getKey();
+      types[ordinal] = typeByProperty.get(propertyName);
+      byProperty.put(propertyName, ordinal);
+      byDbName.put(entry.getKey(), ordinal);
+      byDbName.put(dbNames[ordinal], ordinal);
+      if (propertyName.equals(ID_PROPERTY)) {
+        id = ordinal;
+      }
+      ordinal++;
+    }
+    idOrdinal = id;
+    idColumn = quote + ID_PROPERTY + quote;
+    for (Method method : accessors) {
+      int methodOrdinal = byProperty.get(accessorProperties.get(method.getName()));
+      if (method.getName().startsWith("get") && method.getParameterCount() == 0) {
+        dispatch.put(method, new Accessor(methodOrdinal, createReader(method)));
+      } else if (method.getName().startsWith("set") && method.getParameterCount() == 1) {
+        dispatch.put(method, new Accessor(methodOrdinal, null));
+      }
+    }
+
+    // Column lists keep the quoted sort order used to generate SQL.
+    List<String> all = new ArrayList<>();
+    List<String> withoutId = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      all.add(dbNames[i]);
+      if (i != idOrdinal) {
+        withoutId.add(dbNames[i]);
+      }
+    }
+    all.sort(null);
+    withoutId.sort(null);
+    columns = unmodifiableList(all);
+    columnsWithoutId = unmodifiableList(withoutId);
+    columnOrdinals = toOrdinals(columns);
+    columnOrdinalsWithoutId = toOrdinals(columnsWithoutId);
+    rowConstructor = createRowConstructor(clz);
+
+    String simpleName = clz.getSimpleName();
+    if (simpleName.endsWith(ROW_INTERFACE_SUFFIX)) {
+      simpleName = simpleName.substring(0, simpleName.length() - ROW_INTERFACE_SUFFIX.length());
+    }
+    tableName = convertToDbName(simpleName, quote);
+  }
+
+  /**
+   * @return Converter from a slot value to the return type of a getter.
+   */
+  @SuppressWarnings("unchecked")
+  private Function<Object, Object> createReader(Method getter) {
+    Class<?> type = getter.getReturnType();
+    if (List.class.isAssignableFrom(type)) {
+      Class<?> itemType = resolveItemType(getter);
+      return value -> {
+        if (value == null || itemType == null) {
+          return value;
+        }
+        if (!(value instanceof List)) {
+          throw new MoarException(getter.getName(), " can not return ", value.getClass().getName());
+        }
+        List<Object> items = (List<Object>) value;
+        List<Object> result = new ArrayList<>(items.size());
+        for (Object item : items) {
+          result.add(item instanceof Map ? createNested(itemType, (Map<String, Object>) item) : item);
+        }
+        return result;
+      };
+    }
+    Function<Object, Object> converter = WokeValueConverter.forType(type);
+    Class<?> boxed = WokeValueConverter.box(type);
+    boolean isInterface = type.isInterface();
+    return value -> {
+      if (value == null) {
+        return converter.apply(null);
+      } else if (value.getClass() == boxed) {
+        return value;
+      } else if (isInterface && value instanceof Map) {
+        return createNested(type, (Map<String, Object>) value);
+      }
+      Object result = converter.apply(value);
+      if (!boxed.isInstance(result)) {
+        throw new MoarException(getter.getName(), " can not return ", value.getClass().getName());
+      }
+      return result;
+    };
+  }
+
+  private static Object createNested(Class<?> type, Map<String, Object> map) {
+    Object row = WokeRepository.create(type);
+    InterfaceUtil.asWokeProxy(row).set(map);
+    return row;
+  }
+
+  /**
+   * @return Row interface for the items of a list getter (from the type
+   *   argument or a Row interface named for the property, "getPets" for a
+   *   "Pet" interface), null when the items are not rows.
+   */
+  private Class<?> resolveItemType(Method getter) {
+    Type type = getter.getGenericReturnType();
+    if (type instanceof ParameterizedType) {
+      Type item = ((ParameterizedType) type).getActualTypeArguments()[0];
+      if (item instanceof Class) {
+        return ((Class<?>) item).isInterface() ? (Class<?>) item : null;
+      }
+    }
+    String name = getter.getName();
+    if (!name.endsWith("s")) {
+      return null;
+    }
+    String itemClassName = clz.getPackage().getName() + "." + name.substring(3, name.length() - 1);
+    try {
+      Class<?> item = Class.forName(itemClassName, false, clz.getClassLoader());
+      return item.isInterface() ? item : null;
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private Constructor<?> createRowConstructor(Class<?> clz) {
+    ClassLoader c = WokeRepository.class.getClassLoader();
+    Class<?>[] cc = { clz, WokeProxiedObject.class };
+    try {
+      return Proxy.getProxyClass(c, cc).getConstructor(InvocationHandler.class);
+    } catch (NoSuchMethodException e) {
+      throw asRuntimeException(e);
+    }
+  }
+
+  /**
+   * @return Getter or setter for a method, null when the method is not an
+   *   accessor.
+   */
+  Accessor getAccessor(Method method) {
+    return dispatch.get(method);
+  }
+
+  /**
+   * @return Property name for a getter or setter.
+   */
+  String getAccessorProperty(String methodName) {
+    String propertyName = accessorProperties.get(methodName);
+    return propertyName == null ? convertToPropertyName(methodName) : propertyName;
+  }
+
+  /**
+   * @return Unquoted column name.
+   */
+  String getColumnName(int ordinal) {
+    return columnNames[ordinal];
+  }
+
+  /**
+   * @return Ordinals in the same order as {@link #getColumns(boolean)}.
+   */
+  int[] getColumnOrdinals(boolean includeId) {
+    return includeId ? columnOrdinals : columnOrdinalsWithoutId;
+  }
+
+  List<String> getColumns(boolean includeId) {
+    return includeId ? columns : columnsWithoutId;
+  }
+
+  String getDbName(int ordinal) {
+    return dbNames[ordinal];
+  }
+
+  String getDbName(String propertyName) {
+    Integer ordinal = byProperty.get(propertyName);
+    if (ordinal == null) {
+      return convertToDbName(propertyName, quote);
+    }
+    return dbNames[ordinal];
+  }
+
+
+  String getIdColumn() {
+    return idColumn;
+  }
+
+  int getIdOrdinal() {
+    return idOrdinal;
+  }
+
+  String getIdentifierQuoteString() {
+    return quote;
+  }
+
+  /**
+   * @return Ordinal for a property or db name, -1 when the name is not a
+   *   column.
+   */
+  int getOrdinal(String name) {
+    Integer ordinal = byDbName.get(name);
+    if (ordinal == null) {
+      ordinal = byProperty.get(name);
+    }
+    return ordinal == null ? -1 : ordinal;
+  }
+
+  String getPropertyName(int ordinal) {
+    return propertyNames[ordinal];
+  }
+
+  /**
+   * @return Property name for a db name (quoted or not) or a property name.
+   */
+  String getPropertyName(String key) {
+    int ordinal = getOrdinal(key);
+    if (ordinal == -1) {
+      return convertFromDbName(key, quote);
+    }
+    return propertyNames[ordinal];
+  }
+
+
+  int getSize() {
+    return propertyNames.length;
+  }
+
+  String getTableName() {
+    return tableName;
+  }
+
+  Class<?> getTargetClass() {
+    return clz;
+  }
+
+  Class<?> getType(int ordinal) {
+    return types[ordinal];
+  }
+
+  boolean hasIdColumn() {
+    return hasIdColumn;
+  }
+
+  /**
+   * Create a row backed by a handler.
+   */
+  Object newRow(InvocationHandler handler) {
+    try {
+      return rowConstructor.newInstance(handler);
+    } catch (ReflectiveOperationException e) {
+      throw asRuntimeException(e);
+    }
+  }
+
+  private int[] toOrdinals(List<String> dbNameList) {
+    int[] ordinals = new int[dbNameList.size()];
+    for (int i = 0; i < ordinals.length; i++) {
+      ordinals[i] = byDbName.get(dbNameList.get(i));
+    }
+    return ordinals;
+  }
+
+}
@@ -0,0 +1,93 @@
+package moar.awake;
+
+import static moar.sugar.Sugar.require;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Options for batch operations.
+ * <p>
+ * Rows are written in chunks. Each chunk is a single JDBC batch (or a single
+ * multi-row <code>values (...),(...)</code> statement when
+ * {@link #multiRowValues(boolean)} is enabled). A multi-row chunk of a wide
+ * table is split so no statement has more than 65535 placeholders (the MySQL
+ * limit).
+ */
+public class WokeBatchOptions {
+  private static PropertyAccessor props = new PropertyAccessor(WokeBatchOptions.class);
+  private static int CHUNK_SIZE = props.getInteger("chunkSize", 1000);
+
+  private int chunkSize = CHUNK_SIZE;
+  private boolean multiRowValues;
+  private boolean commitEachChunk;
+  private boolean generatedKeys;
+
+  /**
+   * @param value
+   *   Number of rows sent to the database at a time.
+   * @return options
+   */
+  public WokeBatchOptions chunkSize(int value) {
+    require(value > 0);
+    chunkSize = value;
+    return this;
+  }
+
+  /**
+   * Commit after each chunk.
+   * <p>
+   * Only applies when the connection is in auto commit mode. Inside a
+   * {@link WokeTxSession} the transaction decides when to commit.
+   *
+   * @param value
+   *   True to commit each chunk.
+   * @return options
+   */
+  public WokeBatchOptions commitEachChunk(boolean value) {
+    commitEachChunk = value;
+    return this;
+  }
+
+  /**
+   * Back-fill generated ids into {@link WakeableRow.IdColumnAsAutoLong} rows.
+   * <p>
+   * Ids are only back-filled when the driver returns one key per row (MySQL
+   * does, including upserts that update an existing row).
+   *
+   * @param value
+   *   True to read generated keys.
+   * @return options
+   */
+  public WokeBatchOptions generatedKeys(boolean value) {
+    generatedKeys = value;
+    return this;
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  boolean isCommitEachChunk() {
+    return commitEachChunk;
+  }
+
+  boolean isGeneratedKeys() {
+    return generatedKeys;
+  }
+
+  boolean isMultiRowValues() {
+    return multiRowValues;
+  }
+
+  /**
+   * Rewrite each chunk of inserts as one statement with multiple value lists.
+   * This is much faster on MySQL. Upserts are always sent as JDBC batches.
+   *
+   * @param value
+   *   True to rewrite inserts.
+   * @return options
+   */
+  public WokeBatchOptions multiRowValues(boolean value) {
+    multiRowValues = value;
+    return this;
+  }
+}
@@ -0,0 +1,113 @@
+package moar.awake;
+
+import static moar.sugar.Sugar.require;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Options for a {@link BufferedWokenRepository}.
+ */
+public class WokeBufferOptions {
+  /**
+   * What to do with a row when the buffer is full.
+   */
+  public enum Backpressure {
+    /**
+     * Wait for the flusher to make room.
+     */
+    BLOCK,
+    /**
+     * Discard the row (counted by {@link BufferedWokenRepository#getDropped()}).
+     */
+    DROP,
+    /**
+     * Write the row on the calling thread.
+     */
+    CALLER_RUNS
+  }
+
+  private static PropertyAccessor props = new PropertyAccessor(WokeBufferOptions.class);
+  private static int MAX_ROWS = props.getInteger("maxRows", 10000);
+  private static int FLUSH_ROWS = props.getInteger("flushRows", 1000);
+  private static long FLUSH_MILLIS = props.getLong("flushMillis", 1000L);
+
+  private int maxRows = MAX_ROWS;
+  private int flushRows = FLUSH_ROWS;
+  private long flushMillis = FLUSH_MILLIS;
+  private Backpressure backpressure = Backpressure.BLOCK;
+  private WokeBatchOptions batchOptions = new WokeBatchOptions();
+
+  /**
+   * @param value
+   *   Policy for rows that do not fit in the buffer.
+   * @return options
+   */
+  public WokeBufferOptions backpressure(Backpressure value) {
+    require(value != null);
+    backpressure = value;
+    return this;
+  }
+
+  /**
+   * @param value
+   *   Options for the batches written by the flusher.
+   * @return options
+   */
+  public WokeBufferOptions batchOptions(WokeBatchOptions value) {
+    require(value != null);
+    batchOptions = value;
+    return this;
+  }
+
+  /**
+   * @param value
+   *   Longest time a row waits in the buffer before a flush starts.
+   * @return options
+   */
+  public WokeBufferOptions flushMillis(long value) {
+    require(value > 0);
+    flushMillis = value;
+    return this;
+  }
+
+  /**
+   * @param value
+   *   Number of buffered rows that starts a flush.
+   * @return options
+   */
+  public WokeBufferOptions flushRows(int value) {
+    require(value > 0);
+    flushRows = value;
+    return this;
+  }
+
+  Backpressure getBackpressure() {
+    return backpressure;
+  }
+
+  WokeBatchOptions getBatchOptions() {
+    return batchOptions;
+  }
+
+  long getFlushMillis() {
+    return flushMillis;
+  }
+
+  int getFlushRows() {
+    return flushRows;
+  }
+
+  int getMaxRows() {
+    return maxRows;
+  }
+
+  /**
+   * @param value
+   *   Number of rows the buffer holds before backpressure applies.
+   * @return options
+   */
+  public WokeBufferOptions maxRows(int value) {
+    require(value > 0);
+    maxRows = value;
+    return this;
+  }
+}
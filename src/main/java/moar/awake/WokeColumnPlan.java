@@ -0,0 +1,113 @@
+package moar.awake;
+
+import static java.util.Arrays.asList;
+import static moar.sugar.Sugar.require;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Plan for loading the columns of a result set into rows.
+ * <p>
+ * Columns are matched by label using the <code>Alias_column</code> labels
+ * generated for Row interfaces or the plain column name. The plan is resolved
+ * from {@link ResultSetMetaData} once per SQL text and Row interfaces, so
+ * hand written SQL and stored procedures may return any subset of the columns
+ * in any order. When no label matches the columns are read by position.
+ */
+final class WokeColumnPlan {
+  private static PropertyAccessor props = new PropertyAccessor(WokeColumnPlan.class);
+  private static Cache<List<Object>, WokeColumnPlan> plans = CacheBuilder.newBuilder()
+      .maximumSize(props.getLong("maxSize", 1000L))
+      .build();
+
+  /**
+   * @return Plan for the SQL and schemas (one per Row interface in the result
+   *   set).
+   */
+  static WokeColumnPlan of(String sql, RowSchema[] schemas, ResultSet rs) {
+    List<Object> key = asList(sql, asList(schemas));
+    return require(() -> plans.get(key, () -> new WokeColumnPlan(schemas, rs.getMetaData())));
+  }
+
+  private final int[][] ordinals;
+  private final int[][] columns;
+
+  private WokeColumnPlan(RowSchema[] schemas, ResultSetMetaData md) throws SQLException {
+    Map<String, Integer> labels = new HashMap<>();
+    int count = md.getColumnCount();
+    for (int i = 1; i <= count; i++) {
+      labels.putIfAbsent(md.getColumnLabel(i).toLowerCase(), i);
+    }
+    ordinals = new int[schemas.length][];
+    columns = new int[schemas.length][];
+    boolean matched = false;
+    for (int s = 0; s < schemas.length; s++) {
+      RowSchema schema = schemas[s];
+      String alias = schema.getTargetClass().getSimpleName() + "_";
+      int[] ordinal = new int[schema.getSize()];
+      int[] column = new int[schema.getSize()];
+      int size = 0;
+      for (int i = 0; i < schema.getSize(); i++) {
+        String name = schema.getColumnName(i).toLowerCase();
+        Integer index = labels.get((alias + name).toLowerCase());
+        if (index == null) {
+          index = labels.get(name);
+        }
+        if (index != null) {
+          ordinal[size] = i;
+          column[size] = index;
+          size++;
+        }
+      }
+      matched |= size > 0;
+      ordinals[s] = Arrays.copyOf(ordinal, size);
+      columns[s] = Arrays.copyOf(column, size);
+    }
+    if (!matched) {
+      planByPosition(schemas);
+    }
+  }
+
+  /**
+   * Load the columns for one of the Row interfaces.
+   */
+  void load(int schemaIndex, WokePrivateProxy woke, ResultSet rs) throws SQLException {
+    int[] ordinal = ordinals[schemaIndex];
+    int[] column = columns[schemaIndex];
+    for (int i = 0; i < ordinal.length; i++) {
+      woke.load(ordinal[i], rs.getObject(column[i]));
+    }
+  }
+
+  private void planByPosition(RowSchema[] schemas) {
+    int col = 0;
+    for (int s = 0; s < schemas.length; s++) {
+      RowSchema schema = schemas[s];
+      boolean hasId = schema.hasIdColumn();
+      int[] ordinal = schema.getColumnOrdinals(!hasId);
+      int size = ordinal.length + (hasId ? 1 : 0);
+      ordinals[s] = new int[size];
+      columns[s] = new int[size];
+      for (int i = 0; i < ordinal.length; i++) {
+        ordinals[s][i] = ordinal[i];
+        columns[s][i] = ++col;
+      }
+      if (hasId) {
+        ordinals[s][size - 1] = schema.getIdOrdinal();
+        columns[s][size - 1] = ++col;
+      }
+      if (!hasId) {
+        // Generated SQL has a null id column for Row interfaces without ids.
+        col++;
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package moar.awake;
+
+import static moar.awake.InterfaceUtil.asWokeProxy;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import moar.sugar.MoarException;
+
+/**
+ * Streams rows between CSV files and a repository.
+ * <p>
+ * Imports hold one chunk of rows at a time and exports read rows from an
+ * iterator, so memory does not grow with the size of the file. The reader and
+ * writer belong to the caller and are not closed.
+ */
+final class WokeCsv {
+  private static class Progress {
+    private final WokeCsvProgress progress = new WokeCsvProgress();
+    private final WokeCsvOptions options;
+    private long next;
+
+    Progress(WokeCsvOptions options) {
+      this.options = options;
+      next = options.getProgressRows();
+    }
+
+    void add(long count) {
+      progress.add(count);
+      if (progress.getRows() >= next) {
+        while (progress.getRows() >= next) {
+          next += options.getProgressRows();
+        }
+        options.getProgress().accept(progress);
+      }
+    }
+
+    WokeCsvProgress done() {
+      progress.done();
+      options.getProgress().accept(progress);
+      return progress;
+    }
+  }
+
+  static <Row> WokeCsvProgress exportCsv(WokenRepository<Row> repository, WokeCsvOptions options, Writer writer,
+      String where, Object... params) throws Exception {
+    Progress progress = new Progress(options);
+    RowSchema schema = asWokeProxy(repository.define()).getSchema();
+    int[] ordinals = schema.getColumnOrdinals(true);
+    String[] headers = new String[ordinals.length];
+    for (int i = 0; i < ordinals.length; i++) {
+      headers[i] = options.getHeader(schema, ordinals[i]);
+    }
+    CSVPrinter printer = new CSVPrinter(writer, options.getFormat().withHeader(headers));
+    Object[] record = new Object[ordinals.length];
+    try (WokeResultSet<Row> rs = repository.iterator(where, params)) {
+      while (rs.next()) {
+        WokePrivateProxy woke = asWokeProxy(rs.get());
+        for (int i = 0; i < ordinals.length; i++) {
+          record[i] = woke.getDbValue(ordinals[i]);
+        }
+        printer.printRecord(record);
+        progress.add(1);
+      }
+    }
+    printer.flush();
+    return progress.done();
+  }
+
+  static <Row> WokeCsvProgress importCsv(WokenRepository<Row> repository, Reader reader, WokeCsvOptions options)
+      throws IOException {
+    Progress progress = new Progress(options);
+    CSVParser parser = options.getFormat().withFirstRecordAsHeader().parse(reader);
+    RowSchema schema = asWokeProxy(repository.define()).getSchema();
+    List<Integer> indexes = new ArrayList<>();
+    List<Integer> ordinals = new ArrayList<>();
+    for (Map.Entry<String, Integer> entry : parser.getHeaderMap().entrySet()) {
+      String column = options.getColumn(entry.getKey());
+      if (column != null) {
+        int ordinal = schema.getOrdinal(column);
+        if (ordinal == -1) {
+          throw new MoarException("csv header is not a column", entry.getKey());
+        }
+        indexes.add(entry.getValue());
+        ordinals.add(ordinal);
+      }
+    }
+    List<Function<String, Object>> converters = new ArrayList<>();
+    for (int ordinal : ordinals) {
+      converters.add(WokeValueConverter.forText(schema.getType(ordinal)));
+    }
+    WokeBatchOptions batchOptions = options.getBatchOptions();
+    int chunkSize = batchOptions.getChunkSize();
+    List<Row> chunk = new ArrayList<>(chunkSize);
+    for (CSVRecord record : parser) {
+      Row row = repository.define();
+      WokePrivateProxy woke = asWokeProxy(row);
+      for (int i = 0; i < converters.size(); i++) {
+        int index = indexes.get(i);
+        String text = index < record.size() ? record.get(index) : null;
+        try {
+          woke.setValue(ordinals.get(i), converters.get(i).apply(text));
+        } catch (RuntimeException e) {
+          throw new MoarException(e, "bad csv value", record.getRecordNumber(), schema.getColumnName(ordinals.get(i)),
+              text);
+        }
+      }
+      chunk.add(row);
+      if (chunk.size() == chunkSize) {
+        write(repository, chunk, options);
+        progress.add(chunk.size());
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      write(repository, chunk, options);
+      progress.add(chunk.size());
+    }
+    return progress.done();
+  }
+
+  private static <Row> void write(WokenRepository<Row> repository, List<Row> chunk, WokeCsvOptions options) {
+    if (options.isUpsert()) {
+      repository.upsertBatch(chunk, options.getBatchOptions());
+    } else {
+      repository.insertBatch(chunk, options.getBatchOptions());
+    }
+  }
+
+  private WokeCsv() {}
+}
@@ -0,0 +1,142 @@
+package moar.awake;
+
+import static moar.sugar.Sugar.require;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.apache.commons.csv.CSVFormat;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Options for CSV import and export.
+ * <p>
+ * The first record of an imported file is the header. Each header is matched
+ * to a column by column name or property name unless it is mapped with
+ * {@link #column(String, String)}. Imported rows are written in chunks with
+ * the batch options so only one chunk of rows is held in memory.
+ * <p>
+ * By default null is written as <code>\N</code> (as MySQL does) so null and
+ * empty strings survive an export and import. An empty field is read as an
+ * empty string for string columns and as null for other columns.
+ */
+public class WokeCsvOptions {
+  private static PropertyAccessor props = new PropertyAccessor(WokeCsvOptions.class);
+  private static long PROGRESS_ROWS = props.getLong("progressRows", 100000L);
+
+  private CSVFormat format = CSVFormat.DEFAULT.withNullString("\\N");
+  private WokeBatchOptions batchOptions = new WokeBatchOptions();
+  private boolean upsert;
+  private final Map<String, String> columns = new HashMap<>();
+  private Consumer<WokeCsvProgress> progress = p -> {};
+  private long progressRows = PROGRESS_ROWS;
+
+  /**
+   * @param value
+   *   Options for the batches written by an import.
+   * @return options
+   */
+  public WokeCsvOptions batchOptions(WokeBatchOptions value) {
+    require(value != null);
+    batchOptions = value;
+    return this;
+  }
+
+  /**
+   * Map a header to a column.
+   *
+   * @param header
+   *   Header in the CSV file.
+   * @param column
+   *   Column (or property) name, null to skip the header on import.
+   * @return options
+   */
+  public WokeCsvOptions column(String header, String column) {
+    columns.put(header, column);
+    return this;
+  }
+
+  /**
+   * @param value
+   *   CSV format (the header is handled by the import and export). Without
+   *   a null string, null strings are exported as empty strings.
+   * @return options
+   */
+  public WokeCsvOptions format(CSVFormat value) {
+    require(value != null);
+    format = value;
+    return this;
+  }
+
+  WokeBatchOptions getBatchOptions() {
+    return batchOptions;
+  }
+
+  /**
+   * @return Column for a header, the header when it is not mapped, or null
+   *   when it is skipped.
+   */
+  String getColumn(String header) {
+    return columns.containsKey(header) ? columns.get(header) : header;
+  }
+
+  CSVFormat getFormat() {
+    return format;
+  }
+
+  /**
+   * @return Header for a column on export.
+   */
+  String getHeader(RowSchema schema, int ordinal) {
+    for (Map.Entry<String, String> entry : columns.entrySet()) {
+      if (entry.getValue() != null && schema.getOrdinal(entry.getValue()) == ordinal) {
+        return entry.getKey();
+      }
+    }
+    return schema.getColumnName(ordinal);
+  }
+
+  Consumer<WokeCsvProgress> getProgress() {
+    return progress;
+  }
+
+  long getProgressRows() {
+    return progressRows;
+  }
+
+  boolean isUpsert() {
+    return upsert;
+  }
+
+  /**
+   * @param value
+   *   Called with the progress every {@link #progressRows(long)} rows and
+   *   when the work is done.
+   * @return options
+   */
+  public WokeCsvOptions progress(Consumer<WokeCsvProgress> value) {
+    require(value != null);
+    progress = value;
+    return this;
+  }
+
+  /**
+   * @param value
+   *   Rows between progress calls.
+   * @return options
+   */
+  public WokeCsvOptions progressRows(long value) {
+    require(value > 0);
+    progressRows = value;
+    return this;
+  }
+
+  /**
+   * @param value
+   *   True to upsert imported rows (insert is the default).
+   * @return options
+   */
+  public WokeCsvOptions upsert(boolean value) {
+    upsert = value;
+    return this;
+  }
+}
@@ -0,0 +1,50 @@
+package moar.awake;
+
+import static java.lang.String.format;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a CSV import or export.
+ */
+public class WokeCsvProgress {
+  private final long start = System.nanoTime();
+  private final AtomicLong rows = new AtomicLong();
+  private volatile long end;
+
+  void add(long count) {
+    rows.addAndGet(count);
+  }
+
+  void done() {
+    end = System.nanoTime();
+  }
+
+  /**
+   * @return Time since the work started (or the total time once done).
+   */
+  public long getElapsedMillis() {
+    long now = end == 0 ? System.nanoTime() : end;
+    return (now - start) / 1000000;
+  }
+
+  /**
+   * @return Rows read from (or written to) the CSV so far.
+   */
+  public long getRows() {
+    return rows.get();
+  }
+
+  public double getRowsPerSecond() {
+    long millis = getElapsedMillis();
+    return millis == 0 ? 0 : getRows() * 1000D / millis;
+  }
+
+  public boolean isDone() {
+    return end != 0;
+  }
+
+  @Override
+  public String toString() {
+    return format("%d rows in %d ms (%.0f rows/sec)", getRows(), getElapsedMillis(), getRowsPerSecond());
+  }
+}
@@ -1,10 +1,18 @@
 package moar.awake;
 import static moar.awake.InterfaceUtil.use;
+import static moar.sugar.Sugar.closeQuietly;
 import static moar.sugar.Sugar.require;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
 import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import com.google.common.collect.MapMaker;
+import com.zaxxer.hikari.HikariDataSource;
+import moar.sugar.PropertyAccessor;
 
 /**
  * A data source based session.
@@ -15,16 +23,87 @@ public class WokeDataSourceSession
     extends
     WokeSession {
 
+  private static PropertyAccessor props = new PropertyAccessor(WokeDataSourceSession.class);
+  private static int DEFAULT_PERMITS = props.getInteger("defaultPermits", 10);
+  private static Map<DataSource, Semaphore> permits = new MapMaker().weakKeys().makeMap();
+  private static Map<DataSource, WokeDatabaseInfo> infos = new MapMaker().weakKeys().makeMap();
+
+  /**
+   * @return Size of the connection pool behind the data source.
+   */
+  private static int getPoolSize(DataSource ds) {
+    if (ds instanceof HikariDataSource) {
+      return ((HikariDataSource) ds).getMaximumPoolSize();
+    } else if (ds instanceof BasicDataSource) {
+      int maxActive = ((BasicDataSource) ds).getMaxActive();
+      return maxActive > 0 ? maxActive : Integer.MAX_VALUE;
+    }
+    return DEFAULT_PERMITS;
+  }
+
   private final DataSource ds;
+  private final WokeQueryCache queryCache;
+  private volatile WokeDatabaseInfo info;
 
   public WokeDataSourceSession(DataSource ds) {
+    this(ds, null);
+  }
+
+  private WokeDataSourceSession(DataSource ds, WokeQueryCache queryCache) {
     this.ds = ds;
+    this.queryCache = queryCache;
+    info = infos.get(ds);
+  }
+
+  /**
+   * Serve reads through this session from a query cache.
+   *
+   * @param cache
+   *   Cache to use, may be shared by sessions.
+   * @return session that uses the cache
+   */
+  public WokeDataSourceSession cached(WokeQueryCache cache) {
+    return new WokeDataSourceSession(ds, cache);
+  }
+
+  /**
+   * @return Facts about the database, read from the first connection of the
+   *   data source.
+   */
+  public WokeDatabaseInfo getDatabaseInfo() {
+    if (info == null) {
+      reserve().close();
+    }
+    return info;
+  }
+
+  @Override
+  String getIdentifierQuoteString() {
+    return getDatabaseInfo().getIdentifierQuoteString();
+  }
+
+  @Override
+  Semaphore getPermits() {
+    return permits.computeIfAbsent(ds, k -> new Semaphore(getPoolSize(k)));
+  }
+
+  @Override
+  WokeQueryCache getQueryCache() {
+    return queryCache;
   }
 
   @Override
   public ConnectionHold reserve() {
     Connection cn = require(() -> ds.getConnection());
-    DatabaseMetaData md = require(() -> cn.getMetaData());
+    if (info == null) {
+      try {
+        info = infos.computeIfAbsent(ds, k -> WokeDatabaseInfo.of(cn));
+      } catch (RuntimeException e) {
+        closeQuietly(cn);
+        throw e;
+      }
+    }
+    WokeDatabaseInfo databaseInfo = info;
     return new ConnectionHold() {
 
       @Override
@@ -38,8 +117,8 @@ public class WokeDataSourceSession
       }
 
       @Override
-      public String getIdentifierQuoteString() {
-        return require(() -> md.getIdentifierQuoteString());
+      public WokeDatabaseInfo getDatabaseInfo() {
+        return databaseInfo;
       }
     };
   }
@@ -55,9 +134,11 @@ public class WokeDataSourceSession
   @SafeVarargs
   public final <T> void upsert(Class<T> clz, Consumer<T>... updators) {
     WokenRepository<T> repo = use(clz).of(ds);
+    List<T> rows = new ArrayList<>();
     for (Consumer<T> updator : updators) {
-      repo.upsert(updator);
+      rows.add(repo.define(updator));
     }
+    repo.upsertBatch(rows);
   }
 
 }
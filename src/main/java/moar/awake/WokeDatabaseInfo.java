@@ -0,0 +1,68 @@
+package moar.awake;
+
+import static moar.sugar.Sugar.require;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Facts about a database captured once from {@link DatabaseMetaData}.
+ * <p>
+ * Use these for dialect decisions instead of asking the driver each time.
+ */
+public class WokeDatabaseInfo {
+  private static final Map<Connection, WokeDatabaseInfo> connectionInfos = new MapMaker().weakKeys().makeMap();
+
+  /**
+   * @return Info for a connection, read once while the connection is
+   *   referenced.
+   */
+  static WokeDatabaseInfo forConnection(Connection cn) {
+    return connectionInfos.computeIfAbsent(cn, WokeDatabaseInfo::of);
+  }
+
+  static WokeDatabaseInfo of(Connection cn) {
+    return require(() -> new WokeDatabaseInfo(cn.getMetaData()));
+  }
+
+  private final String identifierQuoteString;
+  private final String productName;
+  private final String productVersion;
+  private final boolean batchUpdates;
+  private final boolean generatedKeys;
+
+  private WokeDatabaseInfo(DatabaseMetaData md) throws SQLException {
+    identifierQuoteString = md.getIdentifierQuoteString();
+    productName = md.getDatabaseProductName();
+    productVersion = md.getDatabaseProductVersion();
+    batchUpdates = md.supportsBatchUpdates();
+    generatedKeys = md.supportsGetGeneratedKeys();
+  }
+
+  public String getIdentifierQuoteString() {
+    return identifierQuoteString;
+  }
+
+  public String getProductName() {
+    return productName;
+  }
+
+  public String getProductVersion() {
+    return productVersion;
+  }
+
+  public boolean isBatchUpdates() {
+    return batchUpdates;
+  }
+
+  public boolean isGeneratedKeys() {
+    return generatedKeys;
+  }
+
+  @Override
+  public String toString() {
+    return productName + " " + productVersion;
+  }
+}
@@ -0,0 +1,65 @@
+package moar.awake;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Options for reading rows.
+ * <p>
+ * Fetch size and direction are passed to the JDBC statement before the query
+ * is executed. {@link #streaming()} asks MySQL to stream rows one at a time
+ * rather than reading the whole result into memory.
+ */
+public class WokeFetchOptions {
+  private Integer fetchSize;
+  private Integer fetchDirection;
+
+  void apply(Statement statement) throws SQLException {
+    if (fetchDirection != null) {
+      statement.setFetchDirection(fetchDirection);
+    }
+    if (fetchSize != null) {
+      statement.setFetchSize(fetchSize);
+    }
+  }
+
+  /**
+   * @return True when the options change the statement (such statements are
+   *   not shared through a transaction's statement cache).
+   */
+  boolean changesStatement() {
+    return fetchDirection != null || fetchSize != null;
+  }
+
+  /**
+   * @param value
+   *   One of {@link ResultSet#FETCH_FORWARD}, {@link ResultSet#FETCH_REVERSE}
+   *   or {@link ResultSet#FETCH_UNKNOWN}.
+   * @return options
+   */
+  public WokeFetchOptions fetchDirection(int value) {
+    fetchDirection = value;
+    return this;
+  }
+
+  /**
+   * @param value
+   *   Hint for the number of rows the driver reads at a time.
+   * @return options
+   */
+  public WokeFetchOptions fetchSize(int value) {
+    fetchSize = value;
+    return this;
+  }
+
+  /**
+   * Stream rows from MySQL (fetch size of {@link Integer#MIN_VALUE}, forward
+   * only).
+   *
+   * @return options
+   */
+  public WokeFetchOptions streaming() {
+    return fetchDirection(ResultSet.FETCH_FORWARD).fetchSize(Integer.MIN_VALUE);
+  }
+}
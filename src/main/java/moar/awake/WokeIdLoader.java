@@ -0,0 +1,126 @@
+package moar.awake;
+
+import static moar.sugar.Sugar.asRuntimeException;
+import static moar.sugar.Sugar.require;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Coalesces finds by id from many threads into one query.
+ * <p>
+ * The first thread to ask for an id waits for a short window, collecting the
+ * ids asked for by other threads, then loads all of them with
+ * {@link WokenRepository#ids(java.util.Collection)}. This turns N concurrent
+ * <code>id(x).find()</code> calls into one <code>id in (...)</code> query.
+ *
+ * @param <Row>
+ *   Row type
+ */
+public class WokeIdLoader<Row> {
+  private class Batch {
+    private final Map<Object, CompletableFuture<Row>> futures = new LinkedHashMap<>();
+    private boolean closed;
+
+    synchronized CompletableFuture<Row> add(Object id) {
+      if (closed) {
+        return null;
+      }
+      return futures.computeIfAbsent(RowSchema.normalizeId(id), k -> new CompletableFuture<>());
+    }
+
+    synchronized Map<Object, CompletableFuture<Row>> close() {
+      closed = true;
+      return futures;
+    }
+
+    synchronized boolean isFull() {
+      return futures.size() >= maxBatch;
+    }
+  }
+
+  private static PropertyAccessor props = new PropertyAccessor(WokeIdLoader.class);
+  private static long WINDOW = props.getLong("windowMillis", 2L);
+  private static int MAX_BATCH = props.getInteger("maxBatch", 500);
+
+  private final WokenRepository<Row> repository;
+  private final long windowMillis;
+  private final int maxBatch;
+  private final AtomicReference<Batch> current = new AtomicReference<>();
+
+  public WokeIdLoader(WokenRepository<Row> repository) {
+    this(repository, WINDOW, MAX_BATCH);
+  }
+
+  /**
+   * @param repository
+   *   Repository used to load rows.
+   * @param windowMillis
+   *   Time the first caller waits for other ids.
+   * @param maxBatch
+   *   Number of ids that ends the window early.
+   */
+  public WokeIdLoader(WokenRepository<Row> repository, long windowMillis, int maxBatch) {
+    require(maxBatch > 0);
+    this.repository = repository;
+    this.windowMillis = windowMillis;
+    this.maxBatch = maxBatch;
+  }
+
+  /**
+   * @param id
+   *   Id (<code>Long</code>, <code>String</code> or <code>UUID</code>)
+   * @return row or null when not found
+   */
+  public Row find(Object id) {
+    require(id != null);
+    while (true) {
+      Batch batch = current.get();
+      boolean leader = false;
+      if (batch == null) {
+        batch = new Batch();
+        if (!current.compareAndSet(null, batch)) {
+          continue;
+        }
+        leader = true;
+      }
+      CompletableFuture<Row> future = batch.add(id);
+      if (future == null) {
+        continue;
+      }
+      if (leader) {
+        load(batch);
+      }
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        throw asRuntimeException(e.getCause());
+      }
+    }
+  }
+
+  private void load(Batch batch) {
+    long end = System.currentTimeMillis() + windowMillis;
+    while (!batch.isFull() && System.currentTimeMillis() < end) {
+      require(() -> Thread.sleep(1));
+    }
+    current.compareAndSet(batch, null);
+    Map<Object, CompletableFuture<Row>> futures = batch.close();
+    List<Object> ids = new ArrayList<>(futures.keySet());
+    try {
+      List<Row> rows = repository.ids(ids);
+      for (int i = 0; i < ids.size(); i++) {
+        futures.get(ids.get(i)).complete(rows.get(i));
+      }
+    } catch (Throwable t) {
+      for (CompletableFuture<Row> future : futures.values()) {
+        future.completeExceptionally(t);
+      }
+    }
+  }
+}
@@ -9,6 +9,21 @@ public interface WokeMappableResultSet
     extends
     AutoCloseable {
 
+  /**
+   * Read only view of the current row.
+   * <p>
+   * The same view (one row object per class) is rebound to each row by
+   * {@link #next()}, so scanning a large join does not create objects per
+   * row. Use {@link WokeMappableRow#detach(Class)} to keep a row.
+   * <p>
+   * Result sets that do not reuse rows return {@link #get()}.
+   *
+   * @return cursor row
+   */
+  default WokeMappableRow cursor() {
+    return get();
+  }
+
   WokeMappableRow get();
 
   boolean next();
@@ -19,6 +19,37 @@ public class WokeMappableRow {
     this.rowObjects = rowObjects;
   }
 
+  /**
+   * Copy a row so it can be kept after the result set moves on.
+   *
+   * @param clz
+   *   Row interface
+   * @return copy of the row (null if the class is not part of the row)
+   */
+  public <Row> Row detach(Class<Row> clz) {
+    Row row = get(clz);
+    if (row == null) {
+      return null;
+    }
+    WokePrivateProxy source = asWokeProxy(row);
+    Row copy = WokeRepository.create(clz);
+    WokePrivateProxy target = asWokeProxy(copy);
+    target.setIdentifierQuoteString(source.getIdentifierQuoteString());
+    target.load(source.snapshot());
+    return copy;
+  }
+
+  /**
+   * @return Loaded values of each row object.
+   */
+  Object[][] snapshot() {
+    Object[][] snapshot = new Object[rowObjects.length][];
+    for (int i = 0; i < rowObjects.length; i++) {
+      snapshot[i] = asWokeProxy(rowObjects[i]).snapshot();
+    }
+    return snapshot;
+  }
+
   @SuppressWarnings("unchecked")
   public <Row> Row get(Class<Row> clz) {
     for (Object object : rowObjects) {
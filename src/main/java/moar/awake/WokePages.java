@@ -0,0 +1,86 @@
+package moar.awake;
+
+import static moar.awake.InterfaceUtil.asWokeProxy;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Pages of rows read with keyset (seek) pagination.
+ * <p>
+ * Each page is read with <code>where column &gt; ? order by column limit ?</code>
+ * on its own connection, so no connection is held between pages. The cursor
+ * is the value of the order column in the last row read; save it with
+ * {@link #getCursor()} and resume later with {@link #from(Object)}.
+ * <p>
+ * The order column must be unique and not null (the id is a good choice).
+ *
+ * @param <Row>
+ *   Row type
+ */
+public class WokePages<Row>
+    implements
+    Iterator<List<Row>>,
+    Iterable<List<Row>> {
+  private final WokeRepository<Row> repository;
+  private final int ordinal;
+  private final int pageSize;
+  private Object cursor;
+  private List<Row> page;
+  private boolean done;
+
+  WokePages(WokeRepository<Row> repository, int ordinal, int pageSize) {
+    this.repository = repository;
+    this.ordinal = ordinal;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Resume after a cursor.
+   *
+   * @param value
+   *   Cursor from {@link #getCursor()} (null to start at the beginning).
+   * @return pages
+   */
+  public WokePages<Row> from(Object value) {
+    cursor = value;
+    page = null;
+    done = false;
+    return this;
+  }
+
+  /**
+   * @return Value of the order column for the last row read.
+   */
+  public Object getCursor() {
+    return cursor;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (page == null && !done) {
+      List<Row> rows = repository.doPage(ordinal, cursor, pageSize);
+      done = rows.size() < pageSize;
+      if (!rows.isEmpty()) {
+        page = rows;
+      }
+    }
+    return page != null;
+  }
+
+  @Override
+  public Iterator<List<Row>> iterator() {
+    return this;
+  }
+
+  @Override
+  public List<Row> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    List<Row> rows = page;
+    page = null;
+    cursor = asWokeProxy(rows.get(rows.size() - 1)).getDbValue(ordinal);
+    return rows;
+  }
+}
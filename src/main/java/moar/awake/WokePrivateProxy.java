@@ -1,14 +1,12 @@
 package moar.awake;
 
-import static com.google.common.base.CaseFormat.LOWER_CAMEL;
-import static com.google.common.base.CaseFormat.LOWER_UNDERSCORE;
-import static com.google.common.base.CaseFormat.UPPER_CAMEL;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,6 +14,14 @@ import moar.sugar.MoarException;
 
 /**
  * Interface to expose private proxy methods.
+ * <p>
+ * Values are held in slots indexed by the column ordinals of the
+ * {@link RowSchema}. A parallel set of slots holds the values as they were
+ * loaded and setters keep a dirty bit per column, so finding changes only
+ * touches the columns that changed.
+ * <p>
+ * For a row that was never loaded every setter call marks its column dirty
+ * (even when the value is null) so explicit nulls can be written.
  *
  * @author Mark Farnsworth
  */
@@ -23,114 +29,141 @@ class WokePrivateProxy
     implements
     WokeProxy,
     InvocationHandler {
-  private static String ROW_INTERFACE_SUFFIX = "Row";
+  /**
+   * Values, loaded values and dirty columns of a row at one point in time.
+   */
+  static final class State {
+    private final WokePrivateProxy proxy;
+    private final Object[] values;
+    private final Object[] loaded;
+    private final BitSet dirty;
+    private final boolean isLoaded;
 
-  private static String toDbName(String string, String q) {
-    return q + UPPER_CAMEL.to(LOWER_UNDERSCORE, string) + q;
+    private State(WokePrivateProxy proxy) {
+      this.proxy = proxy;
+      values = proxy.values.clone();
+      loaded = proxy.loaded.clone();
+      dirty = proxy.getDirty();
+      isLoaded = proxy.isLoaded;
+    }
+
+    /**
+     * Put the row back in this state.
+     */
+    void restore() {
+      System.arraycopy(values, 0, proxy.values, 0, values.length);
+      System.arraycopy(loaded, 0, proxy.loaded, 0, loaded.length);
+      proxy.dirty.clear();
+      proxy.dirty.or(dirty);
+      proxy.isLoaded = isLoaded;
+    }
   }
 
-  Map<String, Object> setMap = new ConcurrentHashMap<>();
-  Map<String, Object> map = new ConcurrentHashMap<>();
-  Class<?> clz;
-  private String identifierQuoteString = "`";
+  private final Class<?> clz;
+  private RowSchema schema;
+  private final Object[] values;
+  private final Object[] loaded;
+  private final BitSet dirty = new BitSet();
+  private Object[] convertedFrom;
+  private Object[] converted;
+  private boolean isLoaded;
+  private boolean readOnly;
+  private Map<String, Object> extra;
   private String tableName;
 
   WokePrivateProxy(Class<?> clz) {
     this.clz = clz;
+    schema = RowSchema.of(clz, RowSchema.DEFAULT_QUOTE);
+    values = new Object[schema.getSize()];
+    loaded = new Object[values.length];
   }
 
-  String fromDbName(String key) {
-    try {
-      StringBuilder s = new StringBuilder();
-      boolean upper = true;
-      char qChar = identifierQuoteString.charAt(0);
-      for (char c : key.toCharArray()) {
-        if (c == qChar) {
-          // ignore
-        } else if (c != '_') {
-          if (upper) {
-            s.append(Character.toUpperCase(c));
-            upper = false;
-          } else {
-            s.append(c);
-          }
-        }
-        if (c == '_') {
-          upper = true;
-        }
-      }
-      return getPropertyName(s.toString());
-    } catch (RuntimeException e) {
-      throw new RuntimeException(key, e);
+  /**
+   * Mark the current values as the loaded values.
+   */
+  void clean() {
+    for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+      loaded[i] = values[i];
     }
+    dirty.clear();
+    isLoaded = true;
+  }
+
+  String fromDbName(String key) {
+    return schema.getPropertyName(key);
   }
 
   Map<String, Object> get() {
     Map<String, Object> dbMap = new ConcurrentHashMap<>();
-    for (String key : map.keySet()) {
-      String dbName = toDbName(key, getIdentifierQuoteString());
-      dbMap.put(dbName, map.get(key));
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        dbMap.put(schema.getDbName(i), values[i]);
+      }
+    }
+    if (extra != null) {
+      for (String key : extra.keySet()) {
+        dbMap.put(schema.getDbName(key), extra.get(key));
+      }
     }
     return dbMap;
   }
 
   List<String> getColumns(boolean includeId) {
+    return schema.getColumns(includeId);
+  }
+
+  /**
+   * @return Ordinals of the columns changed since the row was loaded.
+   */
+  BitSet getDirty() {
+    return (BitSet) dirty.clone();
+  }
+
+  @Override
+  public List<String> getDirtyColumns() {
     List<String> columns = new ArrayList<>();
-    for (Method method : clz.getMethods()) {
-      String name = method.getName();
-      if (isProperty(name)) {
-        if (!getPropertyName(name).equals(getPropertyName("Id")) || includeId) {
-          String dbName = toDbName(getPropertyName(name), getIdentifierQuoteString());
-          if (!columns.contains(dbName)) {
-            columns.add(dbName);
-          }
-        }
-      }
+    for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+      columns.add(schema.getColumnName(i));
     }
-    Collections.sort(columns);
     return columns;
   }
 
-  Object getDbValue(String column) {
-    String propName = fromDbName(column);
-    Object value = map.get(propName);
+  Object getDbValue(int ordinal) {
+    Object value = values[ordinal];
     if (value instanceof Date) {
       return new java.sql.Timestamp(((Date) value).getTime());
     }
     return value;
   }
 
+  Object getDbValue(String column) {
+    int ordinal = schema.getOrdinal(column);
+    if (ordinal == -1) {
+      return extra == null ? null : extra.get(fromDbName(column));
+    }
+    return getDbValue(ordinal);
+  }
+
   String getIdColumn() {
-    String q = identifierQuoteString;
-    return q + "id" + q;
+    return schema.getIdColumn();
   }
 
   String getIdentifierQuoteString() {
-    return identifierQuoteString;
+    return schema.getIdentifierQuoteString();
   }
 
   Object getIdValue() {
-    return map.get(getPropertyName("Id"));
+    int ordinal = schema.getIdOrdinal();
+    return ordinal == -1 ? null : values[ordinal];
   }
 
-  private Object getProperty(String name) {
-    return map.get(getPropertyName(name));
-  }
-
-  private String getPropertyName(String name) {
-    if (name.startsWith("get") || name.startsWith("set")) {
-      name = name.substring(3);
-    }
-    return UPPER_CAMEL.to(LOWER_CAMEL, name);
+  RowSchema getSchema() {
+    return schema;
   }
 
   String getTableName() {
     if (tableName == null) {
-      String simpleName = clz.getSimpleName();
-      if (simpleName.endsWith(ROW_INTERFACE_SUFFIX)) {
-        simpleName = simpleName.substring(0, simpleName.length() - ROW_INTERFACE_SUFFIX.length());
-      }
-      tableName = toDbName(simpleName, identifierQuoteString);
+      return schema.getTableName();
     }
     return tableName;
   }
@@ -139,9 +172,20 @@ class WokePrivateProxy
     return clz;
   }
 
-  @SuppressWarnings({ "unchecked", "rawtypes" })
+  @SuppressWarnings("unchecked")
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    RowSchema.Accessor accessor = schema.getAccessor(method);
+    if (accessor != null) {
+      if (accessor.isGetter()) {
+        return read(accessor);
+      }
+      if (readOnly) {
+        throw new MoarException(method.getName(), " is not supported by a read only row");
+      }
+      setValue(accessor.getOrdinal(), args[0]);
+      return null;
+    }
     String name = method.getName();
     if (args == null) {
       if (name.equals("privateProxy")) {
@@ -150,153 +194,169 @@ class WokePrivateProxy
         return toString();
       } else if (name.equals("hashCode")) {
         return hashCode();
-      } else {
-        if (isProperty(name)) {
-          Class<?> returnType = method.getReturnType();
-          Object value = getProperty(name);
-          if (value == null) {
-            return null;
-          }
-          if (value instanceof Number) {
-            Number number = (Number) value;
-            if (returnType == Double.class) {
-              return number.doubleValue();
-            }
-            if (returnType == Long.class) {
-              return number.longValue();
-            }
-            if (returnType == Integer.class) {
-              return number.intValue();
-            }
-            if (returnType == Float.class) {
-              return number.floatValue();
-            }
-            if (returnType == Short.class) {
-              return number.shortValue();
-            }
-            if (returnType == Byte.class) {
-              return number.byteValue();
-            }
-          }
-          if (returnType.isAssignableFrom(value.getClass())) {
-            if (value instanceof List) {
-              if (name.endsWith("s")) {
-                String itemClassName = name.substring(3, name.length() - 1);
-                String fqn = clz.getPackage().getName() + "." + itemClassName;
-                Class<?> clz = Class.forName(fqn);
-                List<Map> list = (List) value;
-                List<Object> result = new ArrayList<>();
-                for (Map item : list) {
-                  result.add(InterfaceUtil.use(clz).of(item));
-                }
-                return result;
-              }
-            }
-            return value;
-          }
-          if (returnType.isInterface()) {
-            return InterfaceUtil.use(returnType).of((Map<String, Object>) value);
-          }
-          throw new MoarException();
-        }
       }
     } else if (args.length == 1) {
-      if (name.startsWith("$")) {
-        if (name.equals("$set")) {
-          set((Map<String, Object>) args[0]);
-          return null;
-        } else if (name.equals("$setIdentifierQuoteString")) {
-          setIdentifierQuoteString((String) args[0]);
-          return null;
+      if (name.equals("$set")) {
+        if (readOnly) {
+          throw new MoarException(name, " is not supported by a read only row");
         }
+        set((Map<String, Object>) args[0]);
+        return null;
+      } else if (name.equals("$setIdentifierQuoteString")) {
+        setIdentifierQuoteString((String) args[0]);
+        return null;
       } else if (name.equals("equals")) {
         return equals(args[0]);
-      } else {
-        if (isProperty(name)) {
-          setProperty(name, args[0]);
-          return null;
-        }
       }
     }
     throw new MoarException(name, " is not supported by this proxy");
   }
 
+  boolean isDbDirty(int ordinal) {
+    return dirty.get(ordinal);
+  }
+
   boolean isDbDirty(String column) {
-    String propName = fromDbName(column);
-    Object mapValue = map.get(propName);
-    Object setValue = setMap.get(propName);
-    if (setValue == mapValue) {
-      return false;
-    }
-    if (mapValue != null) {
-      boolean equal = mapValue.equals(setValue);
-      if (equal) {
-        return false;
-      }
-    }
-    return true;
+    int ordinal = schema.getOrdinal(column);
+    return ordinal != -1 && isDbDirty(ordinal);
   }
 
   @Override
   public boolean isDirty() {
-    for (String column : getColumns(true)) {
-      if (isDbDirty(column)) {
-        return true;
-      }
-    }
-    return false;
+    return !dirty.isEmpty();
   }
 
-  private boolean isProperty(String name) {
-    return name.startsWith("get") || name.startsWith("set");
+  /**
+   * Load a value as it was read from the database.
+   */
+  void load(int ordinal, Object value) {
+    values[ordinal] = value;
+    loaded[ordinal] = value;
+    dirty.clear(ordinal);
+    isLoaded = true;
+  }
+
+  /**
+   * Load values from {@link #snapshot()}.
+   */
+  void load(Object[] snapshot) {
+    System.arraycopy(snapshot, 0, values, 0, values.length);
+    System.arraycopy(snapshot, 0, loaded, 0, values.length);
+    dirty.clear();
+    isLoaded = true;
+  }
+
+  /**
+   * @return Value of a getter. Converted values (nested rows, dates and
+   *   numbers of another type) are kept until the slot changes.
+   */
+  private Object read(RowSchema.Accessor accessor) {
+    int ordinal = accessor.getOrdinal();
+    Object value = values[ordinal];
+    if (value == null) {
+      return accessor.read(null);
+    }
+    if (convertedFrom != null && convertedFrom[ordinal] == value) {
+      return converted[ordinal];
+    }
+    Object result = accessor.read(value);
+    if (result != value) {
+      if (convertedFrom == null) {
+        convertedFrom = new Object[values.length];
+        converted = new Object[values.length];
+      }
+      convertedFrom[ordinal] = value;
+      converted[ordinal] = result;
+    }
+    return result;
   }
 
   void reset() {
-    map.clear();
-    for (String key : setMap.keySet()) {
-      map.put(key, setMap.get(key));
+    for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+      values[i] = loaded[i];
     }
+    dirty.clear();
   }
 
   void set(Map<String, Object> dbMap) {
-    setMap.clear();
-    map.clear();
+    for (int i = 0; i < values.length; i++) {
+      load(i, null);
+    }
+    extra = null;
     for (String key : dbMap.keySet()) {
-      String propName = fromDbName(key);
       Object dbValue = dbMap.get(key);
-      if (dbValue == null) {
-        setMap.remove(key);
-      } else {
-        setMap.put(propName, dbValue);
-        map.put(propName, dbValue);
+      if (dbValue != null) {
+        int ordinal = schema.getOrdinal(key);
+        if (ordinal == -1) {
+          if (extra == null) {
+            extra = new LinkedHashMap<>();
+          }
+          extra.put(fromDbName(key), dbValue);
+        } else {
+          load(ordinal, dbValue);
+        }
       }
     }
   }
 
   void setIdentifierQuoteString(String value) {
-    identifierQuoteString = value;
+    if (!value.equals(schema.getIdentifierQuoteString())) {
+      schema = RowSchema.of(clz, value);
+    }
   }
 
-  private void setProperty(String name, Object arg) {
-    if (arg == null) {
-      map.remove(name);
-    } else {
-      map.put(getPropertyName(name), arg);
-    }
+  /**
+   * Make setters fail (for views that are rebound to each row of a cursor).
+   */
+  void setReadOnly(boolean value) {
+    readOnly = value;
   }
 
   void setTableName(String tableish) {
     tableName = tableish;
   }
 
+  void setValue(int ordinal, Object value) {
+    values[ordinal] = value;
+    Object loadedValue = loaded[ordinal];
+    if (isLoaded && (value == loadedValue || value != null && value.equals(loadedValue))) {
+      dirty.clear(ordinal);
+    } else {
+      dirty.set(ordinal);
+    }
+  }
+
+  /**
+   * @return Current state of the row.
+   */
+  State state() {
+    return new State(this);
+  }
+
+  /**
+   * @return Copy of the loaded values.
+   */
+  Object[] snapshot() {
+    return loaded.clone();
+  }
+
   @Override
   public Map<String, Object> toMap() {
-    return new HashMap<>(map);
+    Map<String, Object> map = new HashMap<>();
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        map.put(schema.getPropertyName(i), values[i]);
+      }
+    }
+    if (extra != null) {
+      map.putAll(extra);
+    }
+    return map;
   }
 
   @Override
   public String toString() {
-    return map.toString();
+    return toMap().toString();
   }
 
 }
@@ -1,5 +1,7 @@
 package moar.awake;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -8,6 +10,16 @@ import java.util.Map;
  * @author Mark Farnsworth
  */
 public interface WokeProxy {
+  /**
+   * Proxies that do not track columns return every property with a value
+   * when the row is dirty.
+   *
+   * @return Names of the columns changed since the row was loaded.
+   */
+  default List<String> getDirtyColumns() {
+    return isDirty() ? new ArrayList<>(toMap().keySet()) : new ArrayList<>();
+  }
+
   boolean isDirty();
 
   Map<String, Object> toMap();
@@ -0,0 +1,244 @@
+package moar.awake;
+
+import static java.util.Arrays.asList;
+import static moar.sugar.Sugar.require;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import moar.sugar.MoarException;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * A query that maps results directly to Java objects or primitive arrays.
+ * <p>
+ * Unlike Row interfaces there is no proxy per row. Columns are bound by name
+ * (ignoring case and underscores) to constructor parameters or public fields.
+ * The binding is resolved from {@link ResultSetMetaData} the first time a SQL
+ * statement is mapped to a target and is reused after that.
+ */
+public class WokeQuery {
+  private interface Binder<T> {
+    T bind(ResultSet rs) throws SQLException;
+  }
+
+  private static PropertyAccessor props = new PropertyAccessor(WokeQuery.class);
+  private static Cache<List<Object>, Object> binders = CacheBuilder.newBuilder()
+      .maximumSize(props.getLong("maxBinders", 1000L))
+      .build();
+
+  private static <T> Binder<T> buildBinder(Class<T> clz, ResultSetMetaData md) throws SQLException {
+    int count = md.getColumnCount();
+    Map<String, Integer> columns = new HashMap<>();
+    for (int i = 1; i <= count; i++) {
+      columns.putIfAbsent(normalize(md.getColumnLabel(i)), i);
+    }
+    Class<?> boxed = WokeValueConverter.box(clz);
+    if (count == 1 && (clz.isPrimitive() || boxed.getName().startsWith("java."))) {
+      Function<Object, Object> converter = WokeValueConverter.forType(clz);
+      return rs -> castTo(boxed, converter.apply(rs.getObject(1)));
+    }
+    for (Constructor<?> constructor : clz.getConstructors()) {
+      if (constructor.getParameterCount() == count) {
+        return constructorBinder(constructor, columns);
+      }
+    }
+    return fieldBinder(clz, columns);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T castTo(Class<?> clz, Object value) {
+    return (T) clz.cast(value);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Binder<T> constructorBinder(Constructor<?> constructor, Map<String, Integer> columns) {
+    Parameter[] parameters = constructor.getParameters();
+    int[] index = new int[parameters.length];
+    List<Function<Object, Object>> converters = new ArrayList<>();
+    for (int i = 0; i < parameters.length; i++) {
+      Parameter parameter = parameters[i];
+      Integer column = parameter.isNamePresent() ? columns.get(normalize(parameter.getName())) : null;
+      index[i] = column == null ? i + 1 : column;
+      converters.add(WokeValueConverter.forType(parameter.getType()));
+    }
+    return rs -> {
+      Object[] args = new Object[index.length];
+      for (int i = 0; i < index.length; i++) {
+        args[i] = converters.get(i).apply(rs.getObject(index[i]));
+      }
+      return require(() -> (T) constructor.newInstance(args));
+    };
+  }
+
+  private static <T> Binder<T> fieldBinder(Class<T> clz, Map<String, Integer> columns) {
+    Constructor<T> constructor = require(() -> clz.getConstructor());
+    List<Field> fields = new ArrayList<>();
+    List<Integer> index = new ArrayList<>();
+    List<Function<Object, Object>> converters = new ArrayList<>();
+    for (Field field : clz.getFields()) {
+      Integer column = columns.get(normalize(field.getName()));
+      if (column != null && !Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+        fields.add(field);
+        index.add(column);
+        converters.add(WokeValueConverter.forType(field.getType()));
+      }
+    }
+    if (fields.isEmpty()) {
+      throw new MoarException("no columns bind to", clz.getName());
+    }
+    return rs -> {
+      T object = require(() -> constructor.newInstance());
+      for (int i = 0; i < fields.size(); i++) {
+        Object value = converters.get(i).apply(rs.getObject(index.get(i)));
+        Field field = fields.get(i);
+        require(() -> field.set(object, value));
+      }
+      return object;
+    };
+  }
+
+  private static String normalize(String name) {
+    return name.replace("_", "").toLowerCase();
+  }
+
+  private final WokeSessionBase session;
+  private final String sql;
+  private final Object[] params;
+  private final WokeFetchOptions options;
+
+  WokeQuery(WokeSessionBase session, WokeFetchOptions options, String sql, Object... params) {
+    this.session = session;
+    this.options = options;
+    this.sql = sql;
+    this.params = params;
+  }
+
+  private int columnIndex(ResultSet rs, String column) throws SQLException {
+    List<Object> key = asList(sql, column);
+    Integer index = (Integer) binders.getIfPresent(key);
+    if (index == null) {
+      index = rs.findColumn(column);
+      binders.put(key, index);
+    }
+    return index;
+  }
+
+  private <T> T execute(Function<ResultSet, T> reader) {
+    try (ConnectionHold hold = session.reserve()) {
+      return require(() -> {
+        try (PreparedStatement ps = options.changesStatement() ? hold.get().prepareStatement(sql)
+            : hold.prepareStatement(sql)) {
+          options.apply(ps);
+          for (int i = 0; i < params.length; i++) {
+            ps.setObject(i + 1, params[i]);
+          }
+          try (ResultSet rs = ps.executeQuery()) {
+            return reader.apply(rs);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Map each row to an object.
+   * <p>
+   * Simple types (<code>Long</code>, <code>String</code>, etc.) take the
+   * first column. Other classes bind to a public constructor with one
+   * parameter per column (by name when compiled with <code>-parameters</code>,
+   * otherwise by position) or to public fields.
+   *
+   * @param clz
+   *   Target class
+   * @return list of objects
+   */
+  @SuppressWarnings("unchecked")
+  public <T> List<T> mapTo(Class<T> clz) {
+    return execute(rs -> require(() -> {
+      List<Object> key = asList(sql, clz);
+      Binder<T> binder = (Binder<T>) binders.getIfPresent(key);
+      if (binder == null) {
+        binder = buildBinder(clz, rs.getMetaData());
+        binders.put(key, binder);
+      }
+      List<T> list = new ArrayList<>();
+      while (rs.next()) {
+        list.add(binder.bind(rs));
+      }
+      return list;
+    }));
+  }
+
+  /**
+   * @param column
+   *   Column label
+   * @return values of a column (null is read as zero)
+   */
+  public double[] mapToDoubleArray(String column) {
+    return execute(rs -> require(() -> {
+      int index = columnIndex(rs, column);
+      double[] values = new double[64];
+      int size = 0;
+      while (rs.next()) {
+        if (size == values.length) {
+          values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = rs.getDouble(index);
+      }
+      return Arrays.copyOf(values, size);
+    }));
+  }
+
+  /**
+   * @param column
+   *   Column label
+   * @return values of a column (null is read as zero)
+   */
+  public int[] mapToIntArray(String column) {
+    return execute(rs -> require(() -> {
+      int index = columnIndex(rs, column);
+      int[] values = new int[64];
+      int size = 0;
+      while (rs.next()) {
+        if (size == values.length) {
+          values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = rs.getInt(index);
+      }
+      return Arrays.copyOf(values, size);
+    }));
+  }
+
+  /**
+   * @param column
+   *   Column label
+   * @return values of a column (null is read as zero)
+   */
+  public long[] mapToLongArray(String column) {
+    return execute(rs -> require(() -> {
+      int index = columnIndex(rs, column);
+      long[] values = new long[64];
+      int size = 0;
+      while (rs.next()) {
+        if (size == values.length) {
+          values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = rs.getLong(index);
+      }
+      return Arrays.copyOf(values, size);
+    }));
+  }
+}
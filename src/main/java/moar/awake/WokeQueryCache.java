@@ -0,0 +1,138 @@
+package moar.awake;
+
+import static java.util.Arrays.asList;
+import static moar.sugar.Sugar.require;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Cache for query results.
+ * <p>
+ * Attach the cache to a session with
+ * {@link WokeDataSourceSession#cached(WokeQueryCache)} and
+ * <code>repo.list(where, params)</code> and
+ * {@link WokeSessionBase#iterator(String, Class[], Object...)} reads through
+ * that session are served from memory. Results are keyed by the final SQL and
+ * parameters. Concurrent misses for the same key run the query once.
+ * <p>
+ * The tables a query reads are taken from its <code>from</code> and
+ * <code>join</code> clauses. Writes made through any repository or session
+ * (including insert, update and delete statements run with
+ * {@link WokeSessionBase#executeSql(String, Object...)}) invalidate the
+ * results that read the table. Results of queries without a table (stored
+ * procedures for example) are invalidated by any write. Writes from outside
+ * of this process are not tracked, so keep the time to live short.
+ */
+public class WokeQueryCache
+    implements
+    WokeWriteListener {
+  private static class Entry {
+    private final Set<String> tables;
+    private final List<?> rows;
+
+    Entry(Set<String> tables, List<?> rows) {
+      this.tables = tables;
+      this.rows = rows;
+    }
+
+    boolean reads(String table) {
+      return tables.isEmpty() || tables.contains(table);
+    }
+  }
+
+  private static PropertyAccessor props = new PropertyAccessor(WokeQueryCache.class);
+  private static long MAX_SIZE = props.getLong("maxSize", 1000L);
+  private static long TTL = props.getLong("expireAfterWriteMillis", 10000L);
+
+  private final Cache<List<Object>, Entry> cache;
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Cache with the default size and time to live.
+   */
+  public WokeQueryCache() {
+    this(MAX_SIZE, TTL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param maximumSize
+   *   Maximum number of results.
+   * @param expireAfterWrite
+   *   Time to live for a result.
+   * @param unit
+   *   Unit for the time to live.
+   */
+  public WokeQueryCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+    cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(expireAfterWrite, unit)
+        .recordStats()
+        .build();
+    WokeWriteTracker.listen(this);
+  }
+
+  /**
+   * Get a result, loading it on a miss.
+   * <p>
+   * A result loaded while any write happened is returned but not kept.
+   *
+   * @param sql
+   *   Final SQL
+   * @param params
+   *   Parameters
+   * @param shape
+   *   Row classes the result is read into.
+   * @param loader
+   *   Runs the query.
+   * @return rows (shared, do not change them)
+   */
+  @SuppressWarnings("unchecked")
+  <T> List<T> get(String sql, Object[] params, Object shape, Callable<List<T>> loader) {
+    List<Object> key = asList(sql, asList(params), shape);
+    long readGeneration = generation.get();
+    boolean[] loaded = { false };
+    Entry entry = require(() -> cache.get(key, () -> {
+      loaded[0] = true;
+      return new Entry(WokeWriteTracker.readTables(sql), loader.call());
+    }));
+    if (loaded[0] && generation.get() != readGeneration) {
+      cache.invalidate(key);
+    }
+    return (List<T>) entry.rows;
+  }
+
+  /**
+   * Remove all results.
+   */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return Number of results in the cache.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * @return Hit, miss and eviction counters.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  @Override
+  public void written(String table, Object id) {
+    generation.incrementAndGet();
+    cache.asMap().values().removeIf(entry -> entry.reads(table));
+  }
+}
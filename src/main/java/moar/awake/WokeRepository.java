@@ -2,16 +2,18 @@ package moar.awake;
 
 import static java.lang.String.format;
 import static java.lang.String.join;
-import static java.lang.ThreadLocal.withInitial;
+import static java.util.Arrays.asList;
 import static moar.awake.InterfaceUtil.asWokeProxy;
 import static moar.awake.InterfaceUtil.use;
 import static moar.sugar.Sugar.asRuntimeException;
 import static moar.sugar.Sugar.closeQuietly;
 import static moar.sugar.Sugar.nonNull;
 import static moar.sugar.Sugar.require;
-import static moar.sugar.Sugar.retry;
 import static moar.sugar.Sugar.swallow;
-import java.lang.reflect.Proxy;
+import static moar.sugar.thread.MoarThreadSugar.$;
+import static moar.sugar.thread.MoarThreadSugar.$$;
+import java.io.Reader;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -19,17 +21,33 @@ import java.sql.SQLException;
 import java.sql.SQLSyntaxErrorException;
 import java.sql.SQLTransactionRollbackException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 import javax.sql.DataSource;
+import moar.awake.WokeSqlCache.Op;
 import moar.sugar.MoarException;
 import moar.sugar.MoarLogger;
 import moar.sugar.PropertyAccessor;
 import moar.sugar.RetryableException;
+import moar.sugar.SafeResult;
+import moar.sugar.thread.MoarAsyncProvider;
+import moar.sugar.thread.MoarThreadReport;
 
 /**
  * Top level for wake style data operations. This is where most of the *magic*
@@ -47,11 +65,23 @@ public class WokeRepository<Row>
 
   private static PropertyAccessor props = new PropertyAccessor(WokeRepository.class);
   private static int TX_TRIES = props.getInteger("txTries", 3);
-  private static long TX_RETRY_TIME_DELAY = props.getLong("txRetryDelay", 1000);
-  private static ThreadLocal<Boolean> inInsert = withInitial(() -> false);
+  private static long TX_RETRY_TIME_DELAY = props.getLong("txRetryDelay", 100);
+  private static long TX_RETRY_MAX_DELAY = props.getLong("txRetryMaxDelay", 5000);
+  private static int ID_CHUNK_SIZE = props.getInteger("idChunkSize", 500);
+  private static int MAX_STATEMENT_PARAMS = props.getInteger("maxStatementParams", 65535);
   private static MoarLogger LOG = new MoarLogger(WokeRepository.class);
 
   static String buildColumnsSql(Object[] wokens, int mode) {
+    RowSchema[] schemas = new RowSchema[wokens.length];
+    for (int i = 0; i < wokens.length; i++) {
+      schemas[i] = asWokeProxy(wokens[i]).getSchema();
+    }
+    String q = schemas.length == 0 ? null : schemas[0].getIdentifierQuoteString();
+    return WokeSqlCache.get(null, null, q, Op.COLUMNS, asList(mode, asList(schemas)),
+        () -> buildColumnsSqlText(wokens, mode));
+  }
+
+  private static String buildColumnsSqlText(Object[] wokens, int mode) {
     String columnsSql = "";
     for (int i = 0; i < wokens.length; i++) {
       if (i > 0) {
@@ -110,9 +140,20 @@ public class WokeRepository<Row>
 
   @SuppressWarnings("unchecked")
   static <Row> Row create(Class<Row> clz) {
-    ClassLoader c = WokeRepository.class.getClassLoader();
-    Class<?>[] cc = { clz, WokeProxiedObject.class };
-    return (Row) Proxy.newProxyInstance(c, cc, new WokePrivateProxy(clz));
+    WokePrivateProxy woke = new WokePrivateProxy(clz);
+    return (Row) woke.getSchema().newRow(woke);
+  }
+
+  /**
+   * @return where clause (with a leading space) matching each of the columns.
+   */
+  static String buildWhereSql(RowSchema schema, BitSet ordinals) {
+    String sql = "";
+    for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) {
+      sql += sql.isEmpty() ? " where " : " and ";
+      sql += schema.getDbName(i) + " = ?";
+    }
+    return sql;
   }
 
   static String expandColumnSplat(Object[] woken, String tableish, int mode) {
@@ -137,80 +178,177 @@ public class WokeRepository<Row>
     return expand;
   }
 
-  static void mapResultRow(boolean hasId, Map<String, Object> map, List<String> columns, ResultSet rs)
-      throws SQLException {
-    int col = 0;
-    for (String column : columns) {
-      setColumnValue(map, column, rs.getObject(++col));
+  /**
+   * Run a call once, tracking its cost with <code>$(desc, ...)</code>.
+   * <p>
+   * {@link moar.sugar.thread.MoarThreadSugar} may invoke a tracked call more
+   * than once (when there is no activity or detail costs are off), so the call
+   * is wrapped to run only on the first invocation.
+   */
+  static <T> T track(String desc, Callable<T> call) throws Exception {
+    AtomicBoolean ran = new AtomicBoolean();
+    AtomicReference<T> result = new AtomicReference<>();
+    return $(desc, () -> {
+      if (ran.compareAndSet(false, true)) {
+        result.set(call.call());
+      }
+      return result.get();
+    });
+  }
+
+  /**
+   * @return Ordinals of the columns that have values.
+   */
+  static BitSet valueOrdinals(WokePrivateProxy woke) {
+    BitSet ordinals = new BitSet();
+    for (int i = 0; i < woke.getSchema().getSize(); i++) {
+      if (woke.getDbValue(i) != null) {
+        ordinals.set(i);
+      }
     }
-    if (hasId) {
-      setColumnValue(map, "id", rs.getObject(++col));
+    return ordinals;
+  }
+
+  /**
+   * @return True when the exception (or a cause) is a deadlock or
+   *   serialization failure that is worth retrying.
+   */
+  static boolean isRetryable(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof RetryableException || cause instanceof SQLTransactionRollbackException) {
+        return true;
+      }
+      if (cause instanceof SQLException) {
+        String state = ((SQLException) cause).getSQLState();
+        if ("40001".equals(state) || "40P01".equals(state)) {
+          return true;
+        }
+      }
+      if (cause.getCause() == cause) {
+        break;
+      }
     }
+    return false;
   }
 
   /**
    * Run a transaction with retry, rollback on exceptions.
+   * <p>
+   * Each attempt runs on its own reserved connection so transactions on the
+   * same session run concurrently. A failed attempt is rolled back and, when
+   * the failure is retryable, the transaction is tried again after an
+   * exponential backoff with jitter.
+   * <p>
+   * Rows marked clean or given generated ids by a failed attempt are put back
+   * in the state they had before the attempt, so the next attempt writes
+   * them again.
    *
    * @param session
    * @param tx
    */
   static void runWokeTransaction(WokeSessionBase session, Consumer<WokeTxSession> tx) {
-    synchronized (session) {
-      require(() -> {
-        try (WokeTxSession txSession = new WokeTxSession(session.reserve())) {
-          try {
-            retry(TX_TRIES, TX_RETRY_TIME_DELAY, () -> tx.accept(txSession));
-          } catch (Throwable t) {
-            LOG.trace("runWokeTransaction rollback", t.getMessage(), t);
-            txSession.rollback();
-            throw asRuntimeException(t);
-          }
+    long delay = TX_RETRY_TIME_DELAY;
+    for (int attempt = 1;; attempt++) {
+      try {
+        runWokeTransactionAttempt(session, tx);
+        return;
+      } catch (Throwable t) {
+        if (attempt >= TX_TRIES || !isRetryable(t)) {
+          throw asRuntimeException(t);
         }
-      });
+        LOG.debug("runWokeTransaction retry", attempt, t.getMessage());
+        long wait = delay + (long) (ThreadLocalRandom.current().nextDouble() * delay);
+        require(() -> Thread.sleep(wait));
+        delay = Math.min(delay * 2, TX_RETRY_MAX_DELAY);
+      }
     }
   }
 
-  static void setColumnValue(Map<String, Object> map, String column, Object value) {
-    if (value == null) {
-      map.remove(column);
-    } else {
-      map.put(column, value);
+  private static void runWokeTransactionAttempt(WokeSessionBase session, Consumer<WokeTxSession> tx)
+      throws Exception {
+    try (WokeTxSession txSession = new WokeTxSession(session.reserve())) {
+      try {
+        tx.accept(txSession);
+      } catch (Throwable t) {
+        LOG.trace("runWokeTransaction rollback", t.getMessage(), t);
+        swallow(() -> txSession.rollback());
+        throw t;
+      }
     }
   }
 
   private final Class<Row> clz;
   private final String tableName;
-
-  private WokeSessionBase session;
-
-  private final ThreadLocal<Consumer<Row>> key = new ThreadLocal<>();
+  private final WokeSessionBase session;
+  private final Consumer<Row> key;
+  private final WokeRowCache cache;
+  private final Object cacheId;
 
   public WokeRepository(Class<Row> clz) {
     this(clz, null);
   }
 
   public WokeRepository(Class<Row> clz, String tableName) {
+    this(clz, tableName, null, null, null, null);
+  }
+
+  /**
+   * Repositories are immutable; {@link #of(WokeSessionBase)} and
+   * {@link #where(Consumer)} return new instances so one repository can be
+   * shared by any number of threads.
+   */
+  private WokeRepository(Class<Row> clz, String tableName, WokeSessionBase session, Consumer<Row> key,
+      WokeRowCache cache, Object cacheId) {
     this.clz = clz;
     this.tableName = tableName;
+    this.session = session;
+    this.key = key;
+    this.cache = cache;
+    this.cacheId = cacheId;
   }
 
-  private List<Row> consumeResultSet(boolean hasId, List<String> columns, PreparedStatement ps, String idQuote)
-      throws SQLException {
+  private void applyKey(Row row) {
+    if (key != null) {
+      key.accept(row);
+    }
+  }
+
+  private List<Row> consumeResultSet(String sql, RowSchema schema, PreparedStatement ps) throws SQLException {
     List<Row> list = new ArrayList<>();
     try (ResultSet rs = ps.executeQuery()) {
+      WokeColumnPlan plan = WokeColumnPlan.of(sql, new RowSchema[] { schema }, rs);
+      String idQuote = schema.getIdentifierQuoteString();
       while (rs.next()) {
         Row row = create(clz);
         WokePrivateProxy woke = asWokeProxy(row);
         woke.setIdentifierQuoteString(idQuote);
-        Map<String, Object> map = woke.get();
-        mapResultRow(hasId, map, columns, rs);
-        woke.set(map);
+        plan.load(0, woke, rs);
         list.add(row);
       }
     }
     return list;
   }
 
+  @Override
+  public AsyncWokenRepository<Row> async(MoarAsyncProvider provider) {
+    return new AsyncWokenRepository<>(this, provider, session.getPermits(),
+        WokeWriteTracker.normalize(nonNull(tableName, getTableName())));
+  }
+
+  @Override
+  public BufferedWokenRepository<Row> buffered(WokeBufferOptions options) {
+    return new BufferedWokenRepository<>(this, options, getCacheTable());
+  }
+
+  @Override
+  public WokenRepository<Row> cached(WokeRowCache rowCache) {
+    return new WokeRepository<>(clz, tableName, session, key, rowCache, null);
+  }
+
+  private String getCacheTable() {
+    return WokeWriteTracker.normalize(nonNull(tableName, getTableName()));
+  }
+
   @Override
   public Row define() {
     return define(r -> {});
@@ -224,12 +362,10 @@ public class WokeRepository<Row>
   }
 
   @Override
-  public void delete() {
-    //TODO: delete via SQL.
-    List<Row> list = list();
-    for (Row row : list) {
-      delete(row);
-    }
+  public int delete() {
+    Row keyRow = create(clz);
+    applyKey(keyRow);
+    return require(() -> doTableDeleteSql(keyRow));
   }
 
   @Override
@@ -238,157 +374,198 @@ public class WokeRepository<Row>
   }
 
   @Override
-  public void delete(String where, Object... params) {
-    require(() -> {
-      /* TODO Implement delete without using iterator. */
+  public int delete(String where, Object... params) {
+    if (where.toLowerCase().startsWith("where ")) {
+      return require(() -> doDeleteWhereSql(where, params));
+    }
+    return require(() -> {
+      int count = 0;
       try (WokeResultSet<Row> resultSet = iterator(where, params)) {
         while (resultSet.next()) {
           delete(resultSet.get());
+          count++;
         }
       }
+      return count;
     });
   }
 
-  private synchronized Row doInsert(Row row) {
-    key.set(r -> {});
-    return doSessionInsertRow(row, r -> {}, false);
+  private int doDeleteWhereSql(String where, Object... params) throws SQLException {
+    try (ConnectionHold cn = session.reserve()) {
+      RowSchema schema = RowSchema.of(clz, cn.getIdentifierQuoteString());
+      String table = nonNull(tableName, schema.getTableName());
+      String q = schema.getIdentifierQuoteString();
+      String alias = clz.getSimpleName();
+      // the multi-table form takes an alias on every MySQL version
+      String sql = WokeSqlCache.get(clz, table, q, Op.DELETE_WHERE, where,
+          () -> format("delete %s from %s %s %s", alias, table, alias, where));
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        for (int i = 0; i < params.length; i++) {
+          ps.setObject(i + 1, params[i]);
+        }
+        return ps.executeUpdate();
+      } finally {
+        session.written(table, null);
+      }
+    }
   }
 
-  private synchronized void doInsertBatch(List<Row> rows) throws SQLException {
+  private void doBatch(List<Row> rows, boolean isUpsert, WokeBatchOptions options)
+      throws SQLException {
+    if (rows.isEmpty()) {
+      return;
+    }
     try (ConnectionHold hold = session.reserve()) {
-      Row row0 = rows.get(0);
-      boolean hasId = row0 instanceof WakeableRow.IdColumn;
-      WokePrivateProxy woke = asWokeProxy(row0);
+      WokePrivateProxy woke = asWokeProxy(rows.get(0));
       woke.setIdentifierQuoteString(hold.getIdentifierQuoteString());
-      List<String> columns = woke.getColumns(!hasId);
-      String q = hold.getIdentifierQuoteString();
-      String idColumn = q + "id" + q;
-      String table = nonNull(this.tableName, woke.getTableName());
-      String sql = "insert into \n" + table + " (\n";
-      if (hasId) {
-        sql += idColumn + "\n,";
+      Connection cn = hold.get();
+      boolean commit = options.isCommitEachChunk() && cn.getAutoCommit();
+      if (commit) {
+        cn.setAutoCommit(false);
       }
-      sql += join("\n,", columns);
-      sql += ") values (\n";
-      if (hasId) {
-        sql += "?,\n";
+      try {
+        int chunkSize = options.getChunkSize();
+        for (int start = 0; start < rows.size(); start += chunkSize) {
+          List<Row> chunk = rows.subList(start, Math.min(rows.size(), start + chunkSize));
+          try {
+            doBatchChunk(hold, woke, chunk, isUpsert, options);
+          } finally {
+            writtenRows(nonNull(tableName, woke.getTableName()), chunk);
+          }
+          if (commit) {
+            cn.commit();
+          }
+        }
+      } catch (Throwable t) {
+        if (commit) {
+          swallow(() -> cn.rollback());
+        }
+        if (isRetryable(t)) {
+          throw new RetryableException(t);
+        }
+        throw t;
+      } finally {
+        if (commit) {
+          cn.setAutoCommit(true);
+        }
       }
-      sql += "?\n";
-      for (int i = 1; i < columns.size(); i++) {
-        sql += "\n,?";
+    }
+  }
+
+  private void doBatchChunk(ConnectionHold cn, WokePrivateProxy woke, List<Row> chunk, boolean isUpsert,
+      WokeBatchOptions options) throws SQLException {
+    RowSchema schema = woke.getSchema();
+    boolean keys = options.isGeneratedKeys() && WakeableRow.IdColumnAsAutoLong.class.isAssignableFrom(clz)
+        && cn.getDatabaseInfo().isGeneratedKeys();
+    int[] identityColumn = { 1 };
+    if (options.isMultiRowValues() && !isUpsert) {
+      // keep each statement under the placeholder limit of the driver
+      int rowParams = schema.getColumnOrdinals(!schema.hasIdColumn()).length + (schema.hasIdColumn() ? 1 : 0);
+      int maxRows = Math.max(1, MAX_STATEMENT_PARAMS / rowParams);
+      for (int start = 0; start < chunk.size(); start += maxRows) {
+        List<Row> rows = chunk.subList(start, Math.min(chunk.size(), start + maxRows));
+        String sql = getInsertSql(woke, false, rows.size());
+        try (PreparedStatement ps = keys ? cn.prepareStatement(sql, identityColumn) : cn.prepareStatement(sql)) {
+          int p = 0;
+          for (Row row : rows) {
+            p = setObjects(schema, ps, p, false, row);
+          }
+          ps.executeUpdate();
+          if (keys) {
+            readGeneratedKeys(ps, rows);
+          }
+        }
       }
-      sql += "\n)\n";
-      try (PreparedStatement ps = hold.get().prepareStatement(sql)) {
-        for (Row row : rows) {
-          setObjects(hold, ps, false, row);
+    } else {
+      String sql = getInsertSql(woke, isUpsert, 1);
+      try (PreparedStatement ps = keys ? cn.prepareStatement(sql, identityColumn) : cn.prepareStatement(sql)) {
+        for (Row row : chunk) {
+          setObjects(schema, ps, 0, isUpsert, row);
           ps.addBatch();
         }
         ps.executeBatch();
+        if (keys) {
+          readGeneratedKeys(ps, chunk);
+        }
       }
     }
   }
 
   private void doInsertRowWithConnection(Row row, boolean isUpsert, ConnectionHold hold) throws SQLException {
-    boolean hasId = row instanceof WakeableRow.IdColumn;
     WokePrivateProxy woke = asWokeProxy(row);
     woke.setIdentifierQuoteString(hold.getIdentifierQuoteString());
-    List<String> columns = woke.getColumns(!hasId);
     String q = hold.getIdentifierQuoteString();
-    String idColumn = q + "id" + q;
-    String table = nonNull(this.tableName, woke.getTableName());
-    String sql = "insert into \n" + table + " (\n";
-    if (hasId) {
-      sql += idColumn + "\n,";
-    }
-    sql += join("\n,", columns);
-    sql += ") values (\n";
-    if (hasId) {
-      sql += "?,\n";
-    }
-    sql += "?\n";
-    for (int i = 1; i < columns.size(); i++) {
-      sql += "\n,?";
-    }
-    sql += "\n)\n";
-    if (isUpsert) {
-      sql += " on duplicate key update\n";
-      boolean commaNeeded;
-      if (hasId) {
-        sql += idColumn + "=last_insert_id(" + idColumn + ") ";
-        commaNeeded = true;
-      } else {
-        commaNeeded = false;
-      }
-      for (int i = 0; i < columns.size(); i++) {
-        if (commaNeeded) {
-          sql += "\n, ";
-        }
-        sql += columns.get(i) + "=?";
-        commaNeeded = true;
-      }
-    }
+    String sql = getInsertSql(woke, isUpsert, 1);
 
     boolean auto = isUpsert && row instanceof WakeableRow.IdColumnAsAutoLong;
-    Connection cn = hold.get();
     int[] identityColumn = { 1 };
-    try (PreparedStatement ps = auto ? cn.prepareStatement(sql, identityColumn) : cn.prepareStatement(sql)) {
-      setObjects(hold, ps, isUpsert, row);
-      WokePrivateProxy woke3 = asWokeProxy(row);
-      Map<String, Object> map3 = woke3.get();
+    try (PreparedStatement ps = auto ? hold.prepareStatement(sql, identityColumn) : hold.prepareStatement(sql)) {
+      setObjects(woke.getSchema(), ps, 0, isUpsert, row);
       try {
-        int upResult = ps.executeUpdate();
+        int upResult;
+        try {
+          upResult = ps.executeUpdate();
+        } finally {
+          session.written(nonNull(tableName, woke.getTableName()), woke.getIdValue());
+        }
         swallow(() -> require(upResult == 0 || upResult == 1 || upResult == 2));
         if (auto) {
           try (ResultSet rs = ps.getGeneratedKeys()) {
             if (rs.next()) {
-              Object id = rs.getObject(1);
-              map3.put(idColumn, id);
-              woke.set(map3);
+              session.changing(woke);
+              woke.setValue(woke.getSchema().getIdOrdinal(), rs.getObject(1));
+              woke.clean();
             }
           }
         }
       } catch (SQLSyntaxErrorException e) {
         throw new MoarException("bad sql syntax on upsert", e.getMessage(), stripTicks(q, sql));
-      } catch (SQLTransactionRollbackException e) {
-        throw new RetryableException(e);
       } catch (Throwable e) {
+        if (isRetryable(e)) {
+          throw new RetryableException(e);
+        }
         throw new MoarException("upsert failed", e.getMessage(), stripTicks(q, sql));
       }
     }
   }
 
-  private WokeResultSet<Row> doIterator(String tableish, Object... params) {
-    Row woken = create(clz);
+  private String buildIteratorSql(Row woken, String tableish) {
     boolean isCall = tableish.startsWith("call ") || tableish.startsWith("call\n");
     boolean isSelect = tableish.startsWith("select ") || tableish.startsWith("select\n");
-    String simpleName = asWokeProxy(woken).getTargetClass().getSimpleName();
-    if (isSelect) {
+    String simpleName = clz.getSimpleName();
+    if (isCall || isSelect && !tableish.contains("[*]")) {
+      // run as written, columns are bound by label
+      return tableish;
+    } else if (isSelect) {
       tableish = format("(%s) %s", tableish, simpleName);
-    } else if (!isCall) {
+    } else {
       if (tableish.toLowerCase().startsWith("where ")) {
         tableish = getTableName() + " " + this.clz.getSimpleName() + " " + tableish;
       }
       tableish = format("(select [*] from %s) %s ", tableish, simpleName);
     }
+    String sql = buildSelect(new Object[] { woken }, 1);
+    sql += "from " + expandColumnSplat(new Object[] { woken }, tableish, 0);
+    return sql;
+  }
+
+  private WokeResultSet<Row> doIterator(WokeFetchOptions options, String tableish, Object... params) {
+    Row woken = create(clz);
     AtomicReference<ConnectionHold> cn = new AtomicReference<>();
     AtomicReference<PreparedStatement> ps = new AtomicReference<>();
     AtomicReference<ResultSet> rs = new AtomicReference<>();
     cn.set(session.reserve());
     String q = cn.get().getIdentifierQuoteString();
     asWokeProxy(woken).setIdentifierQuoteString(q);
-    String sql;
-    if (isCall) {
-      sql = tableish;
-    } else {
-      sql = buildSelect(new Object[] { woken }, 1);
-      sql += "from " + expandColumnSplat(new Object[] { woken }, tableish, 0);
-    }
+    String sql = WokeSqlCache.get(clz, tableName, q, Op.ITERATOR, tableish, () -> buildIteratorSql(woken, tableish));
     try {
       ps.set(cn.get().get().prepareStatement(sql));
       try {
+        options.apply(ps.get());
         for (int i = 0; i < params.length; i++) {
           ps.get().setObject(i + 1, params[i]);
         }
+        rs.set(ps.get().executeQuery());
       } catch (Throwable t) {
         ps.get().close();
         throw asRuntimeException(t);
@@ -398,28 +575,27 @@ public class WokeRepository<Row>
       cn.get().close();
       throw asRuntimeException(t);
     }
-    rs.set(require(() -> ps.get().executeQuery()));
 
+    WokeColumnPlan plan = WokeColumnPlan.of(sql, new RowSchema[] { RowSchema.of(clz, q) }, rs.get());
+    AtomicBoolean closed = new AtomicBoolean();
     return new WokeResultSet<Row>() {
       @Override
       public void close() throws Exception {
-        closeQuietly(rs.get());
-        closeQuietly(ps.get());
-        closeQuietly(cn.get());
+        if (closed.compareAndSet(false, true)) {
+          closeQuietly(rs.get());
+          closeQuietly(ps.get());
+          closeQuietly(cn.get());
+        }
       }
 
       @Override
       public Row get() {
         Row row = create(clz);
-        boolean hasId = row instanceof WakeableRow.IdColumn;
         WokePrivateProxy wokenProxy = asWokeProxy(row);
-        wokenProxy.setIdentifierQuoteString(cn.get().getIdentifierQuoteString());
-        Map<String, Object> map = wokenProxy.get();
-        List<String> columns = wokenProxy.getColumns(!hasId);
+        wokenProxy.setIdentifierQuoteString(q);
         require(() -> {
-          mapResultRow(hasId, map, columns, rs.get());
+          plan.load(0, wokenProxy, rs.get());
         });
-        wokenProxy.set(map);
         return row;
       }
 
@@ -430,6 +606,140 @@ public class WokeRepository<Row>
     };
   }
 
+  private Map<Object, Row> doIdsFind(List<Object> ids, int chunkSize) throws SQLException {
+    Map<Object, Row> found = new HashMap<>();
+    try (ConnectionHold cn = session.reserve()) {
+      Row row = create(clz);
+      WokePrivateProxy woke = asWokeProxy(row);
+      woke.setIdentifierQuoteString(cn.getIdentifierQuoteString());
+      RowSchema schema = woke.getSchema();
+      require(schema.hasIdColumn());
+      String table = nonNull(tableName, woke.getTableName());
+      String q = schema.getIdentifierQuoteString();
+      for (int start = 0; start < ids.size(); start += chunkSize) {
+        List<Object> chunk = ids.subList(start, Math.min(ids.size(), start + chunkSize));
+        // Pad to a power of two so there are only a few distinct statements.
+        int size = Math.min(chunkSize, Integer.highestOneBit(chunk.size() * 2 - 1));
+        String sql = WokeSqlCache.get(clz, table, q, Op.FIND_IDS, size, () -> {
+          StringBuilder findSql = new StringBuilder(buildSelect(new Object[] { row }, 2));
+          findSql.append("from ").append(table).append(" where ").append(schema.getIdColumn()).append(" in (?");
+          for (int i = 1; i < size; i++) {
+            findSql.append(",?");
+          }
+          return findSql.append(")").toString();
+        });
+        try (PreparedStatement ps = cn.prepareStatement(sql)) {
+          for (int i = 0; i < size; i++) {
+            ps.setObject(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+          }
+          for (Row item : consumeResultSet(sql, schema, ps)) {
+            found.put(RowSchema.normalizeId(asWokeProxy(item).getIdValue()), item);
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @return Page of rows after the cursor ordered by a column.
+   */
+  List<Row> doPage(int ordinal, Object cursor, int pageSize) {
+    return require(() -> {
+      try (ConnectionHold cn = session.reserve()) {
+        Row keyRow = create(clz);
+        applyKey(keyRow);
+        WokePrivateProxy woke = asWokeProxy(keyRow);
+        woke.setIdentifierQuoteString(cn.getIdentifierQuoteString());
+        RowSchema schema = woke.getSchema();
+        String table = nonNull(tableName, woke.getTableName());
+        BitSet keys = valueOrdinals(woke);
+        String q = schema.getIdentifierQuoteString();
+        boolean after = cursor != null;
+        String sql = WokeSqlCache.get(clz, table, q, Op.PAGE, asList(keys, ordinal, after), () -> {
+          String where = buildWhereSql(schema, keys);
+          String column = schema.getDbName(ordinal);
+          if (after) {
+            where += (where.isEmpty() ? " where " : " and ") + column + " > ?";
+          }
+          return buildSelect(new Object[] { keyRow }, 2) + "from " + table + where + " order by " + column
+              + " limit ?";
+        });
+        try (PreparedStatement ps = cn.prepareStatement(sql)) {
+          int p = setValues(ps, 0, woke, keys);
+          if (after) {
+            ps.setObject(++p, cursor);
+          }
+          ps.setInt(++p, pageSize);
+          return consumeResultSet(sql, schema, ps);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return Smallest and largest id of the matching rows (null when none).
+   */
+  private long[] doScanRange() throws SQLException {
+    try (ConnectionHold cn = session.reserve()) {
+      Row keyRow = create(clz);
+      applyKey(keyRow);
+      WokePrivateProxy woke = asWokeProxy(keyRow);
+      woke.setIdentifierQuoteString(cn.getIdentifierQuoteString());
+      RowSchema schema = woke.getSchema();
+      String table = nonNull(tableName, woke.getTableName());
+      BitSet keys = valueOrdinals(woke);
+      String id = schema.getIdColumn();
+      String sql = format("select min(%s), max(%s) from %s%s", id, id, table, buildWhereSql(schema, keys));
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        setValues(ps, 0, woke, keys);
+        try (ResultSet rs = ps.executeQuery()) {
+          rs.next();
+          Number min = (Number) rs.getObject(1);
+          Number max = (Number) rs.getObject(2);
+          return min == null ? null : new long[] { min.longValue(), max.longValue() };
+        }
+      }
+    }
+  }
+
+  private void doScanPartition(long from, long to, Consumer<Row> consumer) throws Exception {
+    Semaphore permits = session.getPermits();
+    permits.acquire();
+    try (ConnectionHold cn = session.reserve()) {
+      Row keyRow = create(clz);
+      applyKey(keyRow);
+      WokePrivateProxy woke = asWokeProxy(keyRow);
+      woke.setIdentifierQuoteString(cn.getIdentifierQuoteString());
+      RowSchema schema = woke.getSchema();
+      String table = nonNull(tableName, woke.getTableName());
+      BitSet keys = valueOrdinals(woke);
+      String q = schema.getIdentifierQuoteString();
+      String sql = WokeSqlCache.get(clz, table, q, Op.SCAN, keys, () -> {
+        String where = buildWhereSql(schema, keys);
+        where += (where.isEmpty() ? " where " : " and ") + schema.getIdColumn() + " between ? and ?";
+        return buildSelect(new Object[] { keyRow }, 2) + "from " + table + where;
+      });
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        int p = setValues(ps, 0, woke, keys);
+        ps.setLong(++p, from);
+        ps.setLong(++p, to);
+        try (ResultSet rs = ps.executeQuery()) {
+          WokeColumnPlan plan = WokeColumnPlan.of(sql, new RowSchema[] { schema }, rs);
+          while (rs.next()) {
+            Row row = create(clz);
+            WokePrivateProxy rowProxy = asWokeProxy(row);
+            rowProxy.setIdentifierQuoteString(q);
+            plan.load(0, rowProxy, rs);
+            consumer.accept(row);
+          }
+        }
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
   private List<Row> doSessionFind(String orderBy) {
     LOG.trace("sessionFind");
     try {
@@ -441,65 +751,51 @@ public class WokeRepository<Row>
 
   private List<Row> doSessionFindOp(String orderBy) {
     Row keyRow = create(clz);
-    asWokeProxy(keyRow);
-    key.get().accept(keyRow);
+    applyKey(keyRow);
     return doTableFind(keyRow, orderBy);
   }
 
-  private synchronized void doSessionInsertOp(Row row, Consumer<Row> updator, boolean isUpsert) {
-    asWokeProxy(row);
-    if (key.get() != null) {
-      key.get().accept(row);
-    }
-    updator.accept(row);
-    doTableInsert(row, isUpsert);
-  }
-
-  private synchronized Row doSessionInsertRow(Row row, Consumer<Row> updator, boolean isUpsert) {
+  private Row doSessionInsertRow(Row row, Consumer<Row> key, Consumer<Row> updator, boolean isUpsert) {
+    LOG.trace("sessionUpsert");
     try {
-      if (inInsert.get()) {
-        throw new MoarException("reentry");
-      }
-      inInsert.set(true);
-      try {
-        return enterSessionInsertRow(row, updator, isUpsert);
-      } finally {
-        inInsert.set(false);
+      if (key != null) {
+        key.accept(row);
       }
+      updator.accept(row);
+      doTableInsert(row, isUpsert);
     } finally {
-      key.set(r -> {});
+      LOG.trace("out sessionUpsert");
     }
+    return row;
   }
 
   private List<Row> doTableFind(Row row, String orderBy) {
     return require(() -> doTableFindSql(row, orderBy));
   }
 
-  private synchronized List<Row> doTableFindSql(Row row, String orderBy) {
+  private List<Row> doTableFindSql(Row row, String orderBy) {
     try (ConnectionHold cn = session.reserve()) {
-      boolean hasId = row instanceof WakeableRow.IdColumn;
       WokePrivateProxy woke = asWokeProxy(row);
       woke.setIdentifierQuoteString(cn.getIdentifierQuoteString());
+      RowSchema schema = woke.getSchema();
       String table = nonNull(tableName, woke.getTableName());
-      Map<String, Object> map = woke.get();
-      List<String> columns = woke.getColumns(!hasId);
-      String sql = buildSelect(new Object[] { row }, 2);
-      sql += "from " + table + " ";
-      sql += "where ";
-      int i = 0;
-      for (String key : map.keySet()) {
-        if (i++ != 0) {
-          sql += " and ";
-        }
-        sql += key + " = ?";
-      }
-      if (orderBy != null) {
-        sql += " order by " + orderBy;
+      BitSet keys = valueOrdinals(woke);
+      if (keys.isEmpty()) {
+        throw new MoarException("find requires a key value", table);
       }
+      String q = schema.getIdentifierQuoteString();
+      String sql = WokeSqlCache.get(clz, table, q, Op.FIND, asList(keys, orderBy), () -> {
+        String findSql = buildSelect(new Object[] { row }, 2);
+        findSql += "from " + table + buildWhereSql(schema, keys);
+        if (orderBy != null) {
+          findSql += " order by " + orderBy;
+        }
+        return findSql;
+      });
       try {
-        try (PreparedStatement ps = cn.get().prepareStatement(sql)) {
-          setupStatement(map, map.keySet(), ps);
-          return consumeResultSet(hasId, columns, ps, woke.getIdentifierQuoteString());
+        try (PreparedStatement ps = cn.prepareStatement(sql)) {
+          setValues(ps, 0, woke, keys);
+          return consumeResultSet(sql, schema, ps);
         }
       } catch (SQLException e) {
         LOG.warn(e.getMessage(), sql, e);
@@ -508,68 +804,259 @@ public class WokeRepository<Row>
     }
   }
 
+  private int doTableDeleteSql(Row keyRow) throws SQLException {
+    try (ConnectionHold cn = session.reserve()) {
+      WokePrivateProxy keyProxy = asWokeProxy(keyRow);
+      keyProxy.setIdentifierQuoteString(cn.getIdentifierQuoteString());
+      RowSchema schema = keyProxy.getSchema();
+      String table = nonNull(tableName, keyProxy.getTableName());
+      BitSet keys = valueOrdinals(keyProxy);
+      if (keys.isEmpty()) {
+        throw new MoarException("delete requires a key value", table);
+      }
+      String q = schema.getIdentifierQuoteString();
+      String sql = WokeSqlCache.get(clz, table, q, Op.DELETE_WHERE, keys, () -> {
+        return "delete from " + table + buildWhereSql(schema, keys);
+      });
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        setValues(ps, 0, keyProxy, keys);
+        return ps.executeUpdate();
+      } finally {
+        session.written(table, null);
+      }
+    }
+  }
+
+  private int doTableUpdateSql(Row keyRow, Row valueRow) throws SQLException {
+    try (ConnectionHold cn = session.reserve()) {
+      WokePrivateProxy keyProxy = asWokeProxy(keyRow);
+      WokePrivateProxy value = asWokeProxy(valueRow);
+      keyProxy.setIdentifierQuoteString(cn.getIdentifierQuoteString());
+      RowSchema schema = keyProxy.getSchema();
+      String table = nonNull(tableName, keyProxy.getTableName());
+      BitSet keys = valueOrdinals(keyProxy);
+      if (keys.isEmpty()) {
+        throw new MoarException("update requires a key value", table);
+      }
+      BitSet values = value.getDirty();
+      if (schema.getIdOrdinal() != -1) {
+        values.clear(schema.getIdOrdinal());
+      }
+      if (values.isEmpty()) {
+        return 0;
+      }
+      String q = schema.getIdentifierQuoteString();
+      String sql = WokeSqlCache.get(clz, table, q, Op.UPDATE_WHERE, asList(values, keys), () -> {
+        String updateSql = "update " + table + "\nset";
+        boolean comma = false;
+        for (int i = values.nextSetBit(0); i >= 0; i = values.nextSetBit(i + 1)) {
+          updateSql += (comma ? ",\n" : "\n") + schema.getDbName(i) + "=?";
+          comma = true;
+        }
+        return updateSql + buildWhereSql(schema, keys);
+      });
+      try (PreparedStatement ps = cn.prepareStatement(sql)) {
+        int p = setValues(ps, 0, value, values);
+        setValues(ps, p, keyProxy, keys);
+        return ps.executeUpdate();
+      } finally {
+        session.written(table, null);
+      }
+    }
+  }
+
   private void doTableInsert(Row row, boolean isUpsert) {
     require(() -> doTableInsertSql(row, isUpsert));
   }
 
-  private synchronized void doTableInsertSql(Row row, boolean isUpsert) throws SQLException {
+  private void doTableInsertSql(Row row, boolean isUpsert) throws SQLException {
     try (ConnectionHold hold = session.reserve()) {
       doInsertRowWithConnection(row, isUpsert, hold);
     }
   }
 
-  private synchronized Row doUpsert(Row row) {
-    key.set(r -> {});
-    return doSessionInsertRow(row, r -> {}, true);
+  @Override
+  public WokeCsvProgress exportCsv(Writer writer, String tableish, Object... params) {
+    return exportCsv(new WokeCsvOptions(), writer, tableish, params);
   }
 
-  private synchronized Row enterSessionInsertRow(Row row, Consumer<Row> updator, boolean isUpsert) {
-    LOG.trace("sessionUpsert");
-    try {
-      synchronized (session) {
-        doSessionInsertOp(row, updator, isUpsert);
-      }
-    } finally {
-      LOG.trace("out sessionUpsert");
-    }
-    return row;
+  @Override
+  public WokeCsvProgress exportCsv(WokeCsvOptions options, Writer writer, String tableish, Object... params) {
+    return require(() -> WokeCsv.exportCsv(this, options, writer, tableish, params));
   }
 
   @Override
   public Row find() {
-    return require(() -> {
+    boolean useCache = cacheId != null && !(session instanceof WokeTxSession);
+    if (useCache) {
+      Object[] snapshot = cache.get(getCacheTable(), cacheId);
+      if (snapshot != null) {
+        Row row = create(clz);
+        asWokeProxy(row).load(snapshot);
+        return row;
+      }
+    }
+    long generation = useCache ? cache.getGeneration() : 0;
+    Row row = require(() -> {
       List<Row> list = doSessionFind(null);
       return list.isEmpty() ? null : list.get(0);
     });
+    if (useCache && row != null) {
+      cache.put(getCacheTable(), cacheId, asWokeProxy(row).snapshot(), generation);
+    }
+    return row;
+  }
+
+  private String getInsertSql(WokePrivateProxy woke, boolean isUpsert, int rowCount) {
+    RowSchema schema = woke.getSchema();
+    String table = nonNull(this.tableName, woke.getTableName());
+    Op op = isUpsert ? Op.UPSERT : Op.INSERT;
+    String q = schema.getIdentifierQuoteString();
+    return WokeSqlCache.get(schema.getTargetClass(), table, q, op, rowCount, () -> {
+      boolean hasId = schema.hasIdColumn();
+      List<String> columns = schema.getColumns(!hasId);
+      String idColumn = schema.getIdColumn();
+      StringBuilder sql = new StringBuilder();
+      sql.append("insert into \n").append(table).append(" (\n");
+      if (hasId) {
+        sql.append(idColumn).append("\n,");
+      }
+      sql.append(join("\n,", columns));
+      sql.append(") values ");
+      for (int r = 0; r < rowCount; r++) {
+        if (r > 0) {
+          sql.append(",");
+        }
+        sql.append("(\n");
+        if (hasId) {
+          sql.append("?,\n");
+        }
+        sql.append("?\n");
+        for (int i = 1; i < columns.size(); i++) {
+          sql.append("\n,?");
+        }
+        sql.append("\n)\n");
+      }
+      if (isUpsert) {
+        sql.append(" on duplicate key update\n");
+        boolean commaNeeded;
+        if (hasId) {
+          sql.append(idColumn).append("=last_insert_id(").append(idColumn).append(") ");
+          commaNeeded = true;
+        } else {
+          commaNeeded = false;
+        }
+        for (int i = 0; i < columns.size(); i++) {
+          if (commaNeeded) {
+            sql.append("\n, ");
+          }
+          sql.append(columns.get(i)).append("=?");
+          commaNeeded = true;
+        }
+      }
+      return sql.toString();
+    });
   }
 
   @Override
   public String getTableName() {
-    return asWokeProxy(create(clz)).getTableName();
+    return RowSchema.of(clz, RowSchema.DEFAULT_QUOTE).getTableName();
   }
 
   @Override
   public WokenWithRow<Row> id(Long id) {
     require(id != null);
-    return this.where(r -> {
+    return whereId(id, r -> {
       ((WakeableRow.IdColumnAsLong) r).setId(id);
     });
   }
 
   @Override
   public WokenWithRow<Row> id(String id) {
-    return this.where(r -> {
+    require(id != null);
+    return whereId(id, r -> {
       ((WakeableRow.IdColumnAsString) r).setId(id);
     });
   }
 
   @Override
   public WokenWithRow<Row> id(UUID id) {
-    return this.where(r -> {
+    require(id != null);
+    return whereId(id, r -> {
       ((WakeableRow.IdColumnAsUUID) r).setId(id);
     });
   }
 
+  @Override
+  public WokePages<Row> pages(String orderColumn, int pageSize) {
+    require(pageSize > 0);
+    int ordinal = RowSchema.of(clz, RowSchema.DEFAULT_QUOTE).getOrdinal(orderColumn);
+    if (ordinal == -1) {
+      throw new MoarException("not a column", orderColumn);
+    }
+    return new WokePages<>(this, ordinal, pageSize);
+  }
+
+  @Override
+  public Map<Object, Row> idMap(Collection<?> ids) {
+    Map<Object, Row> map = new LinkedHashMap<>();
+    List<Row> rows = ids(ids);
+    int i = 0;
+    for (Object id : ids) {
+      Row row = rows.get(i++);
+      if (row != null) {
+        map.put(id, row);
+      }
+    }
+    return map;
+  }
+
+  @Override
+  public List<Row> ids(Collection<?> ids) {
+    return ids(ids, ID_CHUNK_SIZE);
+  }
+
+  @Override
+  public List<Row> ids(Collection<?> ids, int chunkSize) {
+    require(chunkSize > 0);
+    String table = cache == null ? null : getCacheTable();
+    boolean useCache = cache != null && !(session instanceof WokeTxSession);
+    Map<Object, Row> found = new HashMap<>();
+    Set<Object> missing = new LinkedHashSet<>();
+    for (Object id : ids) {
+      Object normalized = RowSchema.normalizeId(id);
+      Object[] snapshot = useCache ? cache.get(table, id) : null;
+      if (snapshot != null) {
+        Row row = create(clz);
+        asWokeProxy(row).load(snapshot);
+        found.put(normalized, row);
+      } else if (id != null && !found.containsKey(normalized)) {
+        missing.add(id);
+      }
+    }
+    if (!missing.isEmpty()) {
+      long generation = useCache ? cache.getGeneration() : 0;
+      Map<Object, Row> loaded = require(() -> doIdsFind(new ArrayList<>(missing), chunkSize));
+      for (Object id : loaded.keySet()) {
+        Row row = loaded.get(id);
+        found.put(id, row);
+        if (useCache) {
+          cache.put(table, id, asWokeProxy(row).snapshot(), generation);
+        }
+      }
+    }
+    List<Row> list = new ArrayList<>(ids.size());
+    for (Object id : ids) {
+      list.add(found.get(RowSchema.normalizeId(id)));
+    }
+    return list;
+  }
+
+  @Override
+  public WokeCsvProgress importCsv(Reader reader, WokeCsvOptions options) {
+    return require(() -> WokeCsv.importCsv(this, reader, options));
+  }
+
   @Override
   public Row insert() {
     return insert(r -> {});
@@ -577,22 +1064,32 @@ public class WokeRepository<Row>
 
   @Override
   public Row insert(Consumer<Row> updator) {
-    return doSessionInsertRow(create(clz), updator, false);
+    return doSessionInsertRow(create(clz), key, updator, false);
   }
 
   @Override
   public Row insert(Row row) {
-    return doInsert(row);
+    return doSessionInsertRow(row, null, r -> {}, false);
   }
 
   @Override
   public void insertBatch(List<Row> rows) {
-    require(() -> doInsertBatch(rows));
+    insertBatch(rows, new WokeBatchOptions());
+  }
+
+  @Override
+  public void insertBatch(List<Row> rows, WokeBatchOptions options) {
+    require(() -> doBatch(rows, false, options));
   }
 
   @Override
   public WokeResultSet<Row> iterator(String tableish, Object... params) {
-    return require(() -> doIterator(tableish, params));
+    return iterator(new WokeFetchOptions(), tableish, params);
+  }
+
+  @Override
+  public WokeResultSet<Row> iterator(WokeFetchOptions options, String tableish, Object... params) {
+    return require(() -> doIterator(options, tableish, params));
   }
 
   @Override
@@ -607,7 +1104,32 @@ public class WokeRepository<Row>
 
   @Override
   public List<Row> list(String tableish, Object... params) {
-    return use(iterator(tableish, params));
+    WokeQueryCache queryCache = session.getQueryCache();
+    if (queryCache == null) {
+      return use(iterator(tableish, params));
+    }
+    String q = session.getIdentifierQuoteString();
+    Row woken = create(clz);
+    asWokeProxy(woken).setIdentifierQuoteString(q);
+    String sql = WokeSqlCache.get(clz, tableName, q, Op.ITERATOR, tableish, () -> buildIteratorSql(woken, tableish));
+    List<Object[]> snapshots = queryCache.get(sql, params, clz, () -> {
+      List<Object[]> rows = new ArrayList<>();
+      try (WokeResultSet<Row> rs = iterator(tableish, params)) {
+        while (rs.next()) {
+          rows.add(asWokeProxy(rs.get()).snapshot());
+        }
+      }
+      return rows;
+    });
+    List<Row> rows = new ArrayList<>(snapshots.size());
+    for (Object[] snapshot : snapshots) {
+      Row row = create(clz);
+      WokePrivateProxy woke = asWokeProxy(row);
+      woke.setIdentifierQuoteString(q);
+      woke.load(snapshot);
+      rows.add(row);
+    }
+    return rows;
   }
 
   @Override
@@ -624,42 +1146,115 @@ public class WokeRepository<Row>
 
   @Override
   public WokenRepository<Row> of(WokeSessionBase session) {
-    this.session = session;
-    return this;
+    return new WokeRepository<>(clz, tableName, session, key, cache, null);
   }
 
-  private void setObjects(ConnectionHold hold, PreparedStatement ps, boolean isUpsert, Row row) throws SQLException {
-    int p = 0;
-    String q = hold.getIdentifierQuoteString();
+  private void writtenRows(String table, List<Row> rows) {
+    for (Row row : rows) {
+      Object id = asWokeProxy(row).getIdValue();
+      if (id == null) {
+        session.written(table, null);
+        return;
+      }
+    }
+    for (Row row : rows) {
+      session.written(table, asWokeProxy(row).getIdValue());
+    }
+  }
+
+  private void readGeneratedKeys(PreparedStatement ps, List<Row> rows) throws SQLException {
+    List<Object> keys = new ArrayList<>();
+    try (ResultSet rs = ps.getGeneratedKeys()) {
+      while (rs.next()) {
+        keys.add(rs.getObject(1));
+      }
+    }
+    if (keys.size() != rows.size()) {
+      // Some drivers only return keys for rows that were inserted.
+      LOG.debug("generated keys do not match rows", keys.size(), rows.size());
+      return;
+    }
+    for (int i = 0; i < keys.size(); i++) {
+      WokePrivateProxy woke = asWokeProxy(rows.get(i));
+      session.changing(woke);
+      woke.setValue(woke.getSchema().getIdOrdinal(), keys.get(i));
+      woke.clean();
+    }
+  }
+
+  private int setObjects(RowSchema schema, PreparedStatement ps, int p, boolean isUpsert, Row row)
+      throws SQLException {
     WokePrivateProxy woke = asWokeProxy(row);
-    String idColumn = q + "id" + q;
-    boolean hasId = row instanceof WakeableRow.IdColumn;
-    Map<String, Object> map = woke.get();
-    List<String> columns = woke.getColumns(!hasId);
+    boolean hasId = schema.hasIdColumn();
+    int[] ordinals = schema.getColumnOrdinals(!hasId);
     if (hasId) {
-      ps.setObject(++p, map.get(idColumn));
+      ps.setObject(++p, woke.getIdValue());
     }
-    for (int i = 0; i < columns.size(); i++) {
-      ps.setObject(++p, woke.getDbValue(columns.get(i)));
+    for (int ordinal : ordinals) {
+      ps.setObject(++p, woke.getDbValue(ordinal));
     }
     if (isUpsert) {
-      for (int i = 0; i < columns.size(); i++) {
-        ps.setObject(++p, woke.getDbValue(columns.get(i)));
+      for (int ordinal : ordinals) {
+        ps.setObject(++p, woke.getDbValue(ordinal));
       }
     }
+    return p;
   }
 
-  private void setupStatement(Map<String, Object> map, Set<String> columns, PreparedStatement ps) throws SQLException {
-    int i = 0;
-    for (String column : columns) {
-      ps.setObject(++i, map.get(column));
+  private int setValues(PreparedStatement ps, int p, WokePrivateProxy woke, BitSet ordinals) throws SQLException {
+    for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) {
+      ps.setObject(++p, woke.getDbValue(i));
     }
+    return p;
   }
 
   private String stripTicks(String quote, String string) {
     return string.replaceAll(quote, "");
   }
 
+  @Override
+  public MoarThreadReport scan(MoarAsyncProvider provider, int partitions, Consumer<Row> consumer) {
+    require(partitions > 0);
+    require(WakeableRow.IdColumnAsLong.class.isAssignableFrom(clz));
+    String desc = "woke " + WokeWriteTracker.normalize(nonNull(tableName, getTableName())) + " scan";
+    return $$(() -> {
+      long[] range = doScanRange();
+      if (range == null) {
+        return;
+      }
+      long min = range[0];
+      long max = range[1];
+      long span = (max - min) / partitions + 1;
+      Vector<Future<Object>> futures = $();
+      for (long from = min; from <= max; from += span) {
+        long to = Math.min(max, from + span - 1);
+        long partitionFrom = from;
+        $(provider, futures, () -> {
+          track(desc, () -> {
+            doScanPartition(partitionFrom, to, consumer);
+            return null;
+          });
+        });
+        if (to == max) {
+          break;
+        }
+      }
+      for (SafeResult<Object> result : $(futures)) {
+        result.getOrThrow();
+      }
+    });
+  }
+
+  @Override
+  public Stream<Row> stream(String tableish, Object... params) {
+    return stream(new WokeFetchOptions(), tableish, params);
+  }
+
+  @Override
+  public Stream<Row> stream(WokeFetchOptions options, String tableish, Object... params) {
+    return iterator(options, tableish, params).stream();
+  }
+
   @Override
   public void update(Row row) {
     session.update(row);
@@ -672,17 +1267,45 @@ public class WokeRepository<Row>
 
   @Override
   public Row upsert(Consumer<Row> updator) {
-    return doSessionInsertRow(create(clz), updator, true);
+    return doSessionInsertRow(create(clz), key, updator, true);
   }
 
   @Override
   public Row upsert(Row row) {
-    return doUpsert(row);
+    return doSessionInsertRow(row, null, r -> {}, true);
+  }
+
+  @Override
+  public int updateAll(Consumer<Row> updator) {
+    Row keyRow = create(clz);
+    applyKey(keyRow);
+    Row valueRow = define(updator);
+    return require(() -> doTableUpdateSql(keyRow, valueRow));
+  }
+
+  @Override
+  public void upsertBatch(List<Row> rows) {
+    upsertBatch(rows, new WokeBatchOptions());
+  }
+
+  @Override
+  public void upsertBatch(List<Row> rows, WokeBatchOptions options) {
+    require(() -> doBatch(rows, true, options));
+  }
+
+  /**
+   * Like {@link #where(Consumer)} but a find by the id alone can use the row
+   * cache.
+   */
+  private WokenWithRow<Row> whereId(Object id, Consumer<Row> r) {
+    Consumer<Row> where = key == null ? r : key.andThen(r);
+    Object cacheKey = cache != null && key == null ? id : null;
+    return new WokeRepository<>(clz, tableName, session, where, cache, cacheKey);
   }
 
   @Override
   public WokenWithRow<Row> where(Consumer<Row> r) {
-    this.key.set(r);
-    return this;
+    Consumer<Row> where = key == null ? r : key.andThen(r);
+    return new WokeRepository<>(clz, tableName, session, where, cache, null);
   }
 }
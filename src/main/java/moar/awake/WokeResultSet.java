@@ -1,5 +1,13 @@
 package moar.awake;
 
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static moar.sugar.Sugar.closeQuietly;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * An interface for iterating over rows.
  *
@@ -13,4 +21,24 @@ public interface WokeResultSet<Row>
   Row get();
 
   boolean next();
+
+  /**
+   * @return A lazy stream of the rows that closes this result set when the
+   *   stream is closed or the last row has been read.
+   */
+  default Stream<Row> stream() {
+    Spliterators.AbstractSpliterator<Row> rows = new Spliterators.AbstractSpliterator<Row>(Long.MAX_VALUE,
+        ORDERED | NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super Row> action) {
+        if (!next()) {
+          closeQuietly(WokeResultSet.this);
+          return false;
+        }
+        action.accept(get());
+        return true;
+      }
+    };
+    return StreamSupport.stream(rows, false).onClose(() -> closeQuietly(this));
+  }
 }
@@ -0,0 +1,121 @@
+package moar.awake;
+
+import static java.util.Arrays.asList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Cache for rows found by id.
+ * <p>
+ * Attach the cache to a repository with
+ * {@link WokenRepository#cached(WokeRowCache)} and
+ * <code>repo.id(id).find()</code> is served from memory. The cache holds a
+ * copy of each row and every hit returns a new copy so callers can change the
+ * rows they get. Writes made through any repository or session invalidate the
+ * entries for the rows (or tables) they touch. Writes inside a
+ * {@link WokeTxSession} invalidate again when the transaction ends.
+ * <p>
+ * Statements run with {@link WokeSessionBase#executeSql(String, Object...)}
+ * invalidate every row of the table they write. Writes from outside of this
+ * process are not tracked, so use a time to live for tables that can change
+ * that way.
+ */
+public class WokeRowCache
+    implements
+    WokeWriteListener {
+  private static PropertyAccessor props = new PropertyAccessor(WokeRowCache.class);
+  private static long MAX_SIZE = props.getLong("maxSize", 10000L);
+  private static long TTL = props.getLong("expireAfterWriteMillis", 60000L);
+
+  private final Cache<List<Object>, Object[]> cache;
+  private final AtomicLong generation = new AtomicLong();
+
+  /**
+   * Cache with the default size and time to live.
+   */
+  public WokeRowCache() {
+    this(MAX_SIZE, TTL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param maximumSize
+   *   Maximum number of rows.
+   * @param expireAfterWrite
+   *   Time to live for a row.
+   * @param unit
+   *   Unit for the time to live.
+   */
+  public WokeRowCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+    cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .expireAfterWrite(expireAfterWrite, unit)
+        .recordStats()
+        .build();
+    WokeWriteTracker.listen(this);
+  }
+
+  private static List<Object> key(String table, Object id) {
+    return asList(table, RowSchema.normalizeId(id));
+  }
+
+  Object[] get(String table, Object id) {
+    return cache.getIfPresent(key(table, id));
+  }
+
+  /**
+   * @return Value to pass to {@link #put(String, Object, Object[], long)} for
+   *   a row read after this call.
+   */
+  long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * Remove all rows.
+   */
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  /**
+   * Put a row unless there was a write after the row was read.
+   */
+  void put(String table, Object id, Object[] values, long readGeneration) {
+    if (generation.get() == readGeneration) {
+      cache.put(key(table, id), values);
+      if (generation.get() != readGeneration) {
+        cache.invalidate(key(table, id));
+      }
+    }
+  }
+
+  /**
+   * @return Number of rows in the cache.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * @return Hit, miss and eviction counters.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  @Override
+  public void written(String table, Object id) {
+    generation.incrementAndGet();
+    if (id == null) {
+      cache.asMap().keySet().removeIf(key -> table.equals(key.get(0)));
+    } else {
+      cache.invalidate(key(table, id));
+    }
+  }
+}
@@ -1,11 +1,11 @@
 package moar.awake;
 
 import static java.lang.String.format;
+import static java.util.Arrays.asList;
 import static moar.awake.InterfaceUtil.asWokeProxy;
 import static moar.awake.WokeRepository.buildSelect;
 import static moar.awake.WokeRepository.create;
 import static moar.awake.WokeRepository.expandColumnSplat;
-import static moar.awake.WokeRepository.mapResultRow;
 import static moar.sugar.Sugar.asRuntimeException;
 import static moar.sugar.Sugar.closeQuietly;
 import static moar.sugar.Sugar.require;
@@ -13,21 +13,29 @@ import static moar.sugar.Sugar.swallow;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
+import moar.awake.WokeSqlCache.Op;
+import moar.sugar.MoarException;
 import moar.sugar.MoarLogger;
+import moar.sugar.RetryableException;
 
 public abstract class WokeSessionBase {
+  private static final Semaphore UNLIMITED = new Semaphore(Integer.MAX_VALUE);
   private final MoarLogger log = new MoarLogger(WokeSessionBase.class);
 
   private String buildSql(String finalTableish, Object[] woken) {
     boolean isCall = finalTableish.startsWith("call ") || finalTableish.startsWith("call\n");
+    boolean isSelect = finalTableish.startsWith("select ") || finalTableish.startsWith("select\n");
     String sql;
-    if (isCall) {
+    if (isCall || isSelect) {
       sql = finalTableish;
     } else {
       sql = buildSelect(woken, 1);
@@ -36,6 +44,26 @@ public abstract class WokeSessionBase {
     return sql;
   }
 
+  private String buildUpdateSql(RowSchema schema, String table, boolean hasId, BitSet dirty) {
+    String sql = "update\n";
+    sql += table;
+    sql += "\nset";
+    boolean comma = false;
+    for (int ordinal : schema.getColumnOrdinals(!hasId)) {
+      if (dirty.get(ordinal)) {
+        if (comma) {
+          sql += ", ";
+        } else {
+          comma = true;
+        }
+        sql += "\n" + schema.getDbName(ordinal) + "=?";
+      }
+    }
+    sql += "\nwhere ";
+    sql += schema.getIdColumn() + "=?";
+    return sql;
+  }
+
   public void delete(Object... rows) {
     if (rows == null) {
       return;
@@ -43,55 +71,158 @@ public abstract class WokeSessionBase {
     for (Object row : rows) {
       if (row != null) {
         WokePrivateProxy proxy = ((WokeProxiedObject) row).privateProxy();
-        String sql = "delete from \n";
-        sql += proxy.getTableName() + "\n";
-        sql += "where\n";
-        sql += proxy.getIdColumn() + "=?";
-        String finalSql = sql;
+        String table = proxy.getTableName();
+        String q = proxy.getIdentifierQuoteString();
+        String finalSql = WokeSqlCache.get(proxy.getTargetClass(), table, q, Op.DELETE, null, () -> {
+          String sql = "delete from \n";
+          sql += table + "\n";
+          sql += "where\n";
+          sql += proxy.getIdColumn() + "=?";
+          return sql;
+        });
         try (ConnectionHold c = reserve()) {
           require(() -> {
-            try (PreparedStatement ps = c.get().prepareStatement(finalSql)) {
+            try (PreparedStatement ps = c.prepareStatement(finalSql)) {
               ps.setObject(1, proxy.getIdValue());
               int result = ps.executeUpdate();
               require(1 == result || 0 == result);
             }
+            written(table, proxy.getIdValue());
           });
         }
       }
     }
   }
 
+  /**
+   * Run a statement.
+   * <p>
+   * An insert, update, delete or truncate of a table invalidates cached rows
+   * and query results for the table.
+   *
+   * @param sql
+   *   SQL to run
+   * @param args
+   *   Parameters
+   * @return update count
+   * @throws SQLException
+   *   when the statement fails
+   */
   public int executeSql(String sql, Object... args) throws SQLException {
+    String table = WokeWriteTracker.writeTable(sql);
     try (ConnectionHold c = reserve()) {
-      try (PreparedStatement ps = c.get().prepareStatement(sql)) {
+      try (PreparedStatement ps = c.prepareStatement(sql)) {
         int i = 0;
         for (Object arg : args) {
           ps.setObject(++i, arg);
         }
         return ps.executeUpdate();
+      } finally {
+        if (table != null) {
+          written(table, null);
+        }
       }
     }
   }
 
   @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static Object[] createRows(Class[] classes, String q) {
+    Object[] rows = new Object[classes.length];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = create(classes[i]);
+      asWokeProxy(rows[i]).setIdentifierQuoteString(q);
+    }
+    return rows;
+  }
+
+  @SuppressWarnings("rawtypes")
   public WokeMappableResultSet iterator(String tableish, Class[] classes, Object... params) {
     boolean isSelect = tableish.startsWith("select ") || tableish.startsWith("select\n");
-    if (isSelect) {
+    if (isSelect && tableish.contains("[*]")) {
       tableish = format("(%s) tableish", tableish);
     }
     String finalTableish = tableish;
+    WokeQueryCache queryCache = getQueryCache();
+    if (queryCache == null) {
+      return doIterator(finalTableish, classes, params);
+    }
+    String q = getIdentifierQuoteString();
+    String sql = buildSql(finalTableish, createRows(classes, q));
+    List<Object[][]> snapshots = queryCache.get(sql, params, asList(classes), () -> {
+      List<Object[][]> rows = new ArrayList<>();
+      try (WokeMappableResultSet rs = doIterator(finalTableish, classes, params)) {
+        WokeMappableRow cursor = rs.cursor();
+        while (rs.next()) {
+          rows.add(cursor.snapshot());
+        }
+      }
+      return rows;
+    });
+    return iterator(classes, q, snapshots);
+  }
+
+  /**
+   * @return Result set over rows from a {@link WokeQueryCache}.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private WokeMappableResultSet iterator(Class[] classes, String q, List<Object[][]> snapshots) {
+    Iterator<Object[][]> rows = snapshots.iterator();
+    return new WokeMappableResultSet() {
+      private Object[][] current;
+      private WokeMappableRow cursor;
+
+      private void bind() {
+        for (int i = 0; i < classes.length; i++) {
+          asWokeProxy(cursor.get(classes[i])).load(current[i]);
+        }
+      }
+
+      @Override
+      public void close() {}
+
+      @Override
+      public WokeMappableRow cursor() {
+        if (cursor == null) {
+          Object[] rowObjects = createRows(classes, q);
+          for (Object rowObject : rowObjects) {
+            asWokeProxy(rowObject).setReadOnly(true);
+          }
+          cursor = new WokeMappableRow(rowObjects);
+          if (current != null) {
+            bind();
+          }
+        }
+        return cursor;
+      }
+
+      @Override
+      public WokeMappableRow get() {
+        Object[] rowObjects = createRows(classes, q);
+        for (int i = 0; i < classes.length; i++) {
+          asWokeProxy(rowObjects[i]).load(current[i]);
+        }
+        return new WokeMappableRow(rowObjects);
+      }
+
+      @Override
+      public boolean next() {
+        current = rows.hasNext() ? rows.next() : null;
+        if (current != null && cursor != null) {
+          bind();
+        }
+        return current != null;
+      }
+    };
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private WokeMappableResultSet doIterator(String finalTableish, Class[] classes, Object... params) {
     AtomicReference<ConnectionHold> cn = new AtomicReference<>();
     AtomicReference<PreparedStatement> ps = new AtomicReference<>();
     AtomicReference<ResultSet> rs = new AtomicReference<>();
     cn.set(reserve());
     String q = cn.get().getIdentifierQuoteString();
-    Object[] woken = new Object[classes.length];
-    for (int i = 0; i < woken.length; i++) {
-      woken[i] = create(classes[i]);
-      asWokeProxy(woken[i]).setIdentifierQuoteString(q);
-    }
-
-    String sql = buildSql(finalTableish, woken);
+    String sql = buildSql(finalTableish, createRows(classes, q));
     try {
       ps.set(cn.get().get().prepareStatement(sql));
       try {
@@ -108,8 +239,17 @@ public abstract class WokeSessionBase {
     }
     ResultSet resultSet = require(() -> ps.get().executeQuery());
     rs.set(resultSet);
+    RowSchema[] schemas = new RowSchema[classes.length];
+    for (int i = 0; i < classes.length; i++) {
+      schemas[i] = RowSchema.of(classes[i], q);
+    }
+    WokeColumnPlan plan = WokeColumnPlan.of(sql, schemas, resultSet);
 
     return new WokeMappableResultSet() {
+      private WokeMappableRow cursor;
+      private WokePrivateProxy[] views;
+      private boolean onRow;
+
       @Override
       public void close() throws Exception {
         closeQuietly(rs.get());
@@ -117,34 +257,115 @@ public abstract class WokeSessionBase {
         closeQuietly(cn.get());
       }
 
+      @Override
+      public WokeMappableRow cursor() {
+        if (cursor == null) {
+          Object[] rowObjects = createRows(classes, q);
+          views = new WokePrivateProxy[classes.length];
+          for (int i = 0; i < classes.length; i++) {
+            views[i] = asWokeProxy(rowObjects[i]);
+            views[i].setReadOnly(true);
+          }
+          cursor = new WokeMappableRow(rowObjects);
+          if (onRow) {
+            require(() -> bind());
+          }
+        }
+        return cursor;
+      }
+
+      private void bind() throws SQLException {
+        for (int i = 0; i < views.length; i++) {
+          plan.load(i, views[i], rs.get());
+        }
+      }
+
       @Override
       public WokeMappableRow get() {
-        Object[] rowObjects = new Object[classes.length];
+        Object[] rowObjects = createRows(classes, q);
         for (int i = 0; i < classes.length; i++) {
-          Object rowObject = create(classes[i]);
-          WokePrivateProxy wokenProxy = asWokeProxy(rowObject);
-          wokenProxy.setIdentifierQuoteString(cn.get().getIdentifierQuoteString());
-          Map<String, Object> map = wokenProxy.get();
-          boolean hasId = rowObject instanceof WakeableRow.IdColumn;
-          List<String> columns = wokenProxy.getColumns(!hasId);
+          WokePrivateProxy wokenProxy = asWokeProxy(rowObjects[i]);
+          int index = i;
           require(() -> {
-            mapResultRow(hasId, map, columns, rs.get());
+            plan.load(index, wokenProxy, rs.get());
           });
-          wokenProxy.set(map);
-          rowObjects[i] = rowObject;
         }
         return new WokeMappableRow(rowObjects);
       }
 
       @Override
       public boolean next() {
-        return require(() -> rs.get().next());
+        return require(() -> {
+          onRow = rs.get().next();
+          if (onRow && cursor != null) {
+            bind();
+          }
+          return onRow;
+        });
       }
     };
   }
 
+  /**
+   * Create a query that maps results without Row proxies.
+   *
+   * @param sql
+   *   SQL to run
+   * @param params
+   *   Parameters
+   * @return query
+   */
+  public WokeQuery query(String sql, Object... params) {
+    return new WokeQuery(this, new WokeFetchOptions(), sql, params);
+  }
+
+  public WokeQuery query(WokeFetchOptions options, String sql, Object... params) {
+    return new WokeQuery(this, options, sql, params);
+  }
+
+  /**
+   * @return Identifier quote used by the connections of this session.
+   */
+  String getIdentifierQuoteString() {
+    try (ConnectionHold c = reserve()) {
+      return c.getIdentifierQuoteString();
+    }
+  }
+
+  /**
+   * @return Cache for query results or null when reads are not cached.
+   */
+  WokeQueryCache getQueryCache() {
+    return null;
+  }
+
+  /**
+   * @return Permits for work that runs in parallel (one per connection).
+   */
+  Semaphore getPermits() {
+    return UNLIMITED;
+  }
+
   public abstract ConnectionHold reserve();
 
+  /**
+   * Record a write so cached rows can be invalidated.
+   *
+   * @param table
+   *   Table name
+   * @param id
+   *   Row id or null for any row of the table
+   */
+  void written(String table, Object id) {
+    WokeWriteTracker.written(table, id);
+  }
+
+  /**
+   * Called before a write changes the state of a row (marks it clean or sets
+   * a generated id).
+   */
+  void changing(WokePrivateProxy proxy) {}
+
   /**
    * Reset an object to the state it had when it was loaded.
    *
@@ -158,45 +379,53 @@ public abstract class WokeSessionBase {
     }
   }
 
+  /**
+   * Update rows.
+   * <p>
+   * Rows are grouped by table and dirty columns. Each group is sent as one
+   * JDBC batch and all groups share one connection.
+   *
+   * @param rows
+   *   Rows to update, rows without changes are skipped.
+   */
   public void update(Object... rows) {
-    for (Object row : rows) {
-      WokePrivateProxy proxy = ((WokeProxiedObject) row).privateProxy();
-      String sql = "update\n";
-      sql += proxy.getTableName();
-      sql += "\nset";
-      AtomicInteger i = new AtomicInteger();
-      List<Consumer<PreparedStatement>> setProps = new ArrayList<>();
-      boolean hasId = row instanceof WakeableRow.IdColumn;
-      boolean comma = false;
-      for (String column : proxy.getColumns(!hasId)) {
-        if (proxy.isDbDirty(column)) {
-          if (comma) {
-            sql += ", ";
-          } else {
-            comma = true;
-          }
-          sql += "\n" + column + "=?";
-          setProps.add(ps -> require(() -> ps.setObject(i.incrementAndGet(), proxy.getDbValue(column))));
+    if (rows == null || rows.length == 0) {
+      return;
+    }
+    try (ConnectionHold c = reserve()) {
+      String q = c.getIdentifierQuoteString();
+      Map<List<Object>, List<WokePrivateProxy>> groups = new LinkedHashMap<>();
+      for (Object row : rows) {
+        WokePrivateProxy proxy = ((WokeProxiedObject) row).privateProxy();
+        proxy.setIdentifierQuoteString(q);
+        RowSchema schema = proxy.getSchema();
+        BitSet dirty = proxy.getDirty();
+        if (schema.hasIdColumn()) {
+          dirty.clear(schema.getIdOrdinal());
+        }
+        if (!dirty.isEmpty()) {
+          List<Object> group = asList(schema, proxy.getTableName(), dirty);
+          groups.computeIfAbsent(group, k -> new ArrayList<>()).add(proxy);
         }
       }
-      if (comma == false) {
-        // Special case where there are no dirty columns.
-        return;
-      }
-      sql += "\nwhere ";
-      sql += proxy.getIdColumn() + "=?";
-      Object idValue = proxy.getIdValue();
-      setProps.add(ps -> require(() -> ps.setObject(i.incrementAndGet(), idValue)));
-      String finalSql = sql;
-      try (ConnectionHold c = reserve()) {
+      for (List<Object> group : groups.keySet()) {
+        RowSchema schema = (RowSchema) group.get(0);
+        String table = (String) group.get(1);
+        BitSet dirty = (BitSet) group.get(2);
+        String finalSql = WokeSqlCache.get(schema.getTargetClass(), table, q, Op.UPDATE, dirty,
+            () -> buildUpdateSql(schema, table, schema.hasIdColumn(), dirty));
         require(() -> {
-          try (PreparedStatement ps = c.get().prepareStatement(finalSql)) {
-            for (Consumer<PreparedStatement> item : setProps) {
-              item.accept(ps);
+          try {
+            doUpdateBatch(c, finalSql, schema, dirty, groups.get(group));
+            for (WokePrivateProxy proxy : groups.get(group)) {
+              changing(proxy);
+              proxy.clean();
+              written(table, proxy.getIdValue());
             }
-            int result = ps.executeUpdate();
-            require(1 == result);
           } catch (Exception e) {
+            if (WokeRepository.isRetryable(e)) {
+              throw new RetryableException(e);
+            }
             log.error(finalSql, e);
             throw e;
           }
@@ -205,11 +434,39 @@ public abstract class WokeSessionBase {
     }
   }
 
+  private void doUpdateBatch(ConnectionHold c, String sql, RowSchema schema, BitSet dirty,
+      List<WokePrivateProxy> proxies) throws SQLException {
+    int[] ordinals = schema.getColumnOrdinals(!schema.hasIdColumn());
+    try (PreparedStatement ps = c.prepareStatement(sql)) {
+      int chunkSize = new WokeBatchOptions().getChunkSize();
+      for (int start = 0; start < proxies.size(); start += chunkSize) {
+        List<WokePrivateProxy> chunk = proxies.subList(start, Math.min(proxies.size(), start + chunkSize));
+        for (WokePrivateProxy proxy : chunk) {
+          int i = 0;
+          for (int ordinal : ordinals) {
+            if (dirty.get(ordinal)) {
+              ps.setObject(++i, proxy.getDbValue(ordinal));
+            }
+          }
+          ps.setObject(++i, proxy.getIdValue());
+          ps.addBatch();
+        }
+        int[] results = ps.executeBatch();
+        for (int j = 0; j < results.length; j++) {
+          int result = results[j];
+          if (result != 1 && result != Statement.SUCCESS_NO_INFO) {
+            throw new MoarException("update failed", result, chunk.get(j).getIdValue());
+          }
+        }
+      }
+    }
+  }
+
   public void update(String tableish, Object... rows) {
     for (Object row : rows) {
       WokePrivateProxy proxy = ((WokeProxiedObject) row).privateProxy();
       proxy.setTableName(tableish);
-      update(row);
     }
+    update(rows);
   }
 }
\ No newline at end of file
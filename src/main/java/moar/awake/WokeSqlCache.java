@@ -0,0 +1,105 @@
+package moar.awake;
+
+import static moar.sugar.Sugar.require;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * Cache for generated SQL text.
+ * <p>
+ * The SQL generated for a Row interface only depends on the row class, the
+ * table, the identifier quote, the operation and the set of columns involved.
+ * Caching the text keeps string building out of the hot paths.
+ */
+public final class WokeSqlCache {
+  enum Op {
+    COLUMNS,
+    DELETE,
+    DELETE_WHERE,
+    FIND,
+    FIND_IDS,
+    INSERT,
+    ITERATOR,
+    PAGE,
+    SCAN,
+    UPDATE,
+    UPDATE_WHERE,
+    UPSERT
+  }
+
+  private static class Key {
+    private final Class<?> clz;
+    private final String table;
+    private final String quote;
+    private final Op op;
+    private final Object signature;
+    private final int hash;
+
+    Key(Class<?> clz, String table, String quote, Op op, Object signature) {
+      this.clz = clz;
+      this.table = table;
+      this.quote = quote;
+      this.op = op;
+      this.signature = signature;
+      hash = Objects.hash(clz, table, quote, op, signature);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && clz == other.clz && op == other.op && Objects.equals(table, other.table)
+          && Objects.equals(quote, other.quote) && Objects.equals(signature, other.signature);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static PropertyAccessor props = new PropertyAccessor(WokeSqlCache.class);
+  private static Cache<Key, String> cache = CacheBuilder.newBuilder()
+      .maximumSize(props.getLong("maxSize", 1000L))
+      .recordStats()
+      .build();
+
+  /**
+   * Get SQL text from the cache, building it when needed.
+   *
+   * @param clz
+   *   Row class (may be null when the SQL involves several classes)
+   * @param table
+   *   Table name (may be null)
+   * @param quote
+   *   Identifier quote
+   * @param op
+   *   Operation
+   * @param signature
+   *   Anything else the SQL depends on (columns, order by, etc).
+   * @param builder
+   *   Builds the SQL on a miss.
+   * @return SQL text
+   */
+  static String get(Class<?> clz, String table, String quote, Op op, Object signature, Callable<String> builder) {
+    return require(() -> cache.get(new Key(clz, table, quote, op, signature), builder));
+  }
+
+  /**
+   * @return Hit and miss counters for the cache.
+   */
+  public static CacheStats stats() {
+    return cache.stats();
+  }
+
+  private WokeSqlCache() {}
+}
@@ -0,0 +1,117 @@
+package moar.awake;
+
+import static java.util.Arrays.asList;
+import static moar.sugar.Sugar.swallow;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import moar.sugar.PropertyAccessor;
+
+/**
+ * LRU cache of prepared statements for one connection.
+ * <p>
+ * Callers get a wrapper whose <code>close()</code> clears the parameters and
+ * returns the statement to the cache. When a statement for the same SQL is
+ * still in use (a nested query, for example) the caller gets a new statement
+ * that is really closed.
+ */
+final class WokeStatementCache {
+  private static class Entry
+      implements
+      InvocationHandler {
+    private final PreparedStatement statement;
+    private final PreparedStatement wrapper;
+    private boolean inUse;
+    private boolean evicted;
+
+    Entry(PreparedStatement statement) {
+      this.statement = statement;
+      wrapper = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+          new Class<?>[] { PreparedStatement.class }, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.equals("close") && args == null) {
+        inUse = false;
+        if (evicted) {
+          statement.close();
+        } else {
+          swallow(() -> statement.clearBatch());
+          statement.clearParameters();
+        }
+        return null;
+      } else if (name.equals("isClosed") && args == null) {
+        return !inUse || statement.isClosed();
+      }
+      try {
+        return method.invoke(statement, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  private static PropertyAccessor props = new PropertyAccessor(WokeStatementCache.class);
+  private static long MAX_SIZE = props.getLong("maxSize", 50L);
+
+  private final Connection connection;
+  private final Cache<List<Object>, Entry> cache;
+
+  WokeStatementCache(Connection connection) {
+    this.connection = connection;
+    RemovalListener<List<Object>, Entry> closer = removal -> {
+      Entry entry = removal.getValue();
+      entry.evicted = true;
+      if (!entry.inUse) {
+        swallow(() -> entry.statement.close());
+      }
+    };
+    cache = CacheBuilder.newBuilder().maximumSize(MAX_SIZE).removalListener(closer).recordStats().build();
+  }
+
+  /**
+   * Close all of the statements.
+   */
+  void clear() {
+    cache.invalidateAll();
+  }
+
+  PreparedStatement prepare(String sql, int[] columnIndexes) throws SQLException {
+    List<Object> key = asList(sql, columnIndexes == null ? null : Arrays.toString(columnIndexes));
+    Entry entry = cache.getIfPresent(key);
+    if (entry != null) {
+      if (entry.inUse) {
+        return prepareUncached(sql, columnIndexes);
+      }
+      entry.inUse = true;
+      return entry.wrapper;
+    }
+    entry = new Entry(prepareUncached(sql, columnIndexes));
+    entry.inUse = true;
+    cache.put(key, entry);
+    return entry.wrapper;
+  }
+
+  private PreparedStatement prepareUncached(String sql, int[] columnIndexes) throws SQLException {
+    if (columnIndexes == null) {
+      return connection.prepareStatement(sql);
+    }
+    return connection.prepareStatement(sql, columnIndexes);
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+}
@@ -3,7 +3,17 @@ package moar.awake;
 import static moar.sugar.Sugar.asRuntimeException;
 import static moar.sugar.Sugar.require;
 import static moar.sugar.Sugar.safely;
+import static moar.sugar.Sugar.swallow;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import com.google.common.cache.CacheStats;
 
 public class WokeTxSession
     extends
@@ -11,9 +21,14 @@ public class WokeTxSession
     implements
     AutoCloseable {
   private final ConnectionHold connectionHold;
+  private final List<List<Object>> writes = new ArrayList<>();
+  private final Map<WokePrivateProxy, WokePrivateProxy.State> changed = new IdentityHashMap<>();
+  private final Semaphore permits = new Semaphore(1);
+  private final WokeStatementCache statements;
 
   public WokeTxSession(ConnectionHold connectionHold) {
     this.connectionHold = connectionHold;
+    statements = new WokeStatementCache(connectionHold.get());
     require(() -> {
       Connection cn = connectionHold.get();
       cn.setAutoCommit(false);
@@ -22,16 +37,47 @@ public class WokeTxSession
 
   @Override
   public void close() throws Exception {
-    commit();
-    Throwable e = safely(() -> connectionHold.get().setAutoCommit(true)).thrown();
+    Throwable e = safely(() -> commit()).thrown();
+    if (e != null) {
+      swallow(() -> rollback());
+    }
+    Throwable reset = safely(() -> connectionHold.get().setAutoCommit(true)).thrown();
     connectionHold.close();
+    e = e == null ? reset : e;
     if (e != null) {
       throw asRuntimeException(e);
     }
   }
 
+  @Override
+  void changing(WokePrivateProxy proxy) {
+    changed.computeIfAbsent(proxy, WokePrivateProxy::state);
+  }
+
   public void commit() {
+    statements.clear();
     require(() -> connectionHold.get().commit());
+    changed.clear();
+    endWrites();
+  }
+
+  /**
+   * Invalidate again once the outcome of the writes is visible to others.
+   */
+  private void endWrites() {
+    List<List<Object>> ended = new ArrayList<>(writes);
+    writes.clear();
+    for (List<Object> write : ended) {
+      WokeWriteTracker.written((String) write.get(0), write.get(1));
+    }
+  }
+
+  /**
+   * There is only one connection so work runs one call at a time.
+   */
+  @Override
+  Semaphore getPermits() {
+    return permits;
   }
 
   @Override
@@ -49,14 +95,55 @@ public class WokeTxSession
       }
 
       @Override
-      public String getIdentifierQuoteString() {
-        return connectionHold.getIdentifierQuoteString();
+      public WokeDatabaseInfo getDatabaseInfo() {
+        return connectionHold.getDatabaseInfo();
+      }
+
+      @Override
+      public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return statements.prepare(sql, null);
+      }
+
+      @Override
+      public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return statements.prepare(sql, columnIndexes);
       }
     };
   }
 
+  /**
+   * @return Hit and miss counters for prepared statements reused in the
+   *   transaction.
+   */
+  public CacheStats getStatementStats() {
+    return statements.stats();
+  }
+
   public void rollback() {
-    require(() -> connectionHold.get().rollback());
+    statements.clear();
+    try {
+      require(() -> connectionHold.get().rollback());
+    } finally {
+      restoreRows();
+    }
+    endWrites();
+  }
+
+  /**
+   * Put rows written in the transaction back in the state they had before it
+   * so they are still dirty (and without generated ids) after a rollback.
+   */
+  private void restoreRows() {
+    for (WokePrivateProxy.State state : changed.values()) {
+      state.restore();
+    }
+    changed.clear();
+  }
+
+  @Override
+  void written(String table, Object id) {
+    super.written(table, id);
+    writes.add(Arrays.asList(table, id));
   }
 
 }
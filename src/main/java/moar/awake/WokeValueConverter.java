@@ -0,0 +1,137 @@
+package moar.awake;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Converters from JDBC values to Java types.
+ * <p>
+ * A converter is resolved once for a target type and then applied to every
+ * value so the type checks happen outside of the row loop.
+ */
+final class WokeValueConverter {
+  private static final Map<Class<?>, Class<?>> boxes = new HashMap<>();
+  private static final Map<Class<?>, Object> defaults = new HashMap<>();
+  static {
+    boxes.put(boolean.class, Boolean.class);
+    boxes.put(byte.class, Byte.class);
+    boxes.put(short.class, Short.class);
+    boxes.put(int.class, Integer.class);
+    boxes.put(long.class, Long.class);
+    boxes.put(float.class, Float.class);
+    boxes.put(double.class, Double.class);
+    boxes.put(char.class, Character.class);
+    defaults.put(boolean.class, false);
+    defaults.put(byte.class, (byte) 0);
+    defaults.put(short.class, (short) 0);
+    defaults.put(int.class, 0);
+    defaults.put(long.class, 0L);
+    defaults.put(float.class, 0F);
+    defaults.put(double.class, 0D);
+    defaults.put(char.class, (char) 0);
+  }
+
+  /**
+   * @return Boxed type for a primitive, otherwise the type.
+   */
+  static Class<?> box(Class<?> type) {
+    Class<?> boxed = boxes.get(type);
+    return boxed == null ? type : boxed;
+  }
+
+  /**
+   * @return Converter for a target type.
+   */
+  static Function<Object, Object> forType(Class<?> type) {
+    Object nullValue = defaults.get(type);
+    Function<Number, Object> number = forNumber(box(type));
+    boolean toDate = type == Date.class;
+    return value -> {
+      if (value == null) {
+        return nullValue;
+      }
+      if (number != null && value instanceof Number) {
+        return number.apply((Number) value);
+      }
+      if (toDate && value instanceof Date && value.getClass() != Date.class) {
+        return new Date(((Date) value).getTime());
+      }
+      return value;
+    };
+  }
+
+  /**
+   * @return Converter from text (as read from a CSV file) to a target type.
+   *   Empty text is null except for strings, which are only null when the
+   *   CSV format reads a null string. Dates use the JDBC timestamp escape
+   *   format.
+   */
+  static Function<String, Object> forText(Class<?> type) {
+    Object nullValue = defaults.get(type);
+    boolean isString = type == String.class;
+    Function<String, Object> parse = forTextValue(box(type));
+    return text -> {
+      if (text == null || text.isEmpty() && !isString) {
+        return nullValue;
+      }
+      return parse.apply(text);
+    };
+  }
+
+  private static Function<String, Object> forTextValue(Class<?> type) {
+    if (type == Long.class) {
+      return Long::valueOf;
+    } else if (type == Integer.class) {
+      return Integer::valueOf;
+    } else if (type == Double.class) {
+      return Double::valueOf;
+    } else if (type == Float.class) {
+      return Float::valueOf;
+    } else if (type == Short.class) {
+      return Short::valueOf;
+    } else if (type == Byte.class) {
+      return Byte::valueOf;
+    } else if (type == Boolean.class) {
+      return text -> text.equals("1") || Boolean.parseBoolean(text);
+    } else if (type == Character.class) {
+      return text -> text.charAt(0);
+    } else if (type == BigDecimal.class) {
+      return BigDecimal::new;
+    } else if (type == BigInteger.class) {
+      return BigInteger::new;
+    } else if (Date.class.isAssignableFrom(type)) {
+      return text -> new Date(Timestamp.valueOf(text).getTime());
+    }
+    return text -> text;
+  }
+
+  private static Function<Number, Object> forNumber(Class<?> type) {
+    if (type == Long.class) {
+      return Number::longValue;
+    } else if (type == Integer.class) {
+      return Number::intValue;
+    } else if (type == Double.class) {
+      return Number::doubleValue;
+    } else if (type == Float.class) {
+      return Number::floatValue;
+    } else if (type == Short.class) {
+      return Number::shortValue;
+    } else if (type == Byte.class) {
+      return Number::byteValue;
+    } else if (type == Boolean.class) {
+      return n -> n.intValue() != 0;
+    } else if (type == BigDecimal.class) {
+      return n -> n instanceof BigDecimal ? n : new BigDecimal(n.toString());
+    } else if (type == BigInteger.class) {
+      return n -> n instanceof BigInteger ? n : BigInteger.valueOf(n.longValue());
+    }
+    return null;
+  }
+
+  private WokeValueConverter() {}
+}
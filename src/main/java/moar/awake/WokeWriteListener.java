@@ -0,0 +1,15 @@
+package moar.awake;
+
+/**
+ * Listener for writes made through repositories and sessions.
+ */
+interface WokeWriteListener {
+  /**
+   * @param table
+   *   Normalized table name (see {@link WokeWriteTracker#normalize(String)}).
+   * @param id
+   *   Id of the row written or null when any row of the table may have been
+   *   written.
+   */
+  void written(String table, Object id);
+}
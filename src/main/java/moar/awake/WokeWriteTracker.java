@@ -0,0 +1,110 @@
+package moar.awake;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Tracks writes so caches can be invalidated.
+ * <p>
+ * Listeners are weakly held so a cache that is no longer referenced stops
+ * listening once it is collected.
+ */
+final class WokeWriteTracker {
+  private static final Set<WokeWriteListener> listeners = Collections
+      .newSetFromMap(new MapMaker().weakKeys().makeMap());
+  private static final String NAME = "([`\"]?[\\w.$]+[`\"]?)";
+  private static final Pattern FROM = Pattern.compile("(?i)\\bfrom\\b");
+  private static final Pattern FROM_END = Pattern
+      .compile("(?i)(?:where|group|order|having|limit|union|window|for)\\b");
+  private static final Pattern READ = Pattern.compile("(?i)(?:^|\\bjoin\\b|,)\\s*" + NAME);
+  private static final Pattern WRITE = Pattern.compile(
+      "(?i)^\\s*(?:insert\\s+(?:ignore\\s+)?into|replace\\s+into|merge\\s+into|update|delete\\s+from|truncate(?:\\s+table)?)\\s+"
+          + NAME);
+
+  static void listen(WokeWriteListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * @return Table name without quotes, alias or case.
+   */
+  static String normalize(String table) {
+    String name = table.trim().split("\\s+")[0];
+    return name.replace("`", "").replace("\"", "").toLowerCase();
+  }
+
+  /**
+   * @return Normalized names of the tables in the from clauses (including
+   *   joins and comma separated lists) of a query, empty when none are found
+   *   (a stored procedure for example).
+   */
+  static Set<String> readTables(String sql) {
+    Set<String> tables = new HashSet<>();
+    Matcher from = FROM.matcher(sql);
+    while (from.find()) {
+      Matcher matcher = READ.matcher(fromClause(sql, from.end()));
+      while (matcher.find()) {
+        tables.add(normalize(matcher.group(1)));
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * @return From clause starting at a position with the contents of nested
+   *   parentheses removed (subqueries have a from clause of their own).
+   */
+  private static String fromClause(String sql, int start) {
+    StringBuilder clause = new StringBuilder();
+    Matcher end = FROM_END.matcher(sql);
+    int depth = 0;
+    for (int i = start; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (c == '(') {
+        depth++;
+      } else if (c == ')' && depth-- == 0) {
+        break;
+      } else if (depth == 0 && !Character.isJavaIdentifierPart(sql.charAt(i - 1))
+          && end.region(i, sql.length()).lookingAt()) {
+        break;
+      }
+      if (depth == 0 || c == '(' && depth == 1) {
+        clause.append(c);
+      }
+    }
+    return clause.toString();
+  }
+
+  /**
+   * @return Normalized name of the table a DML statement writes, null when the
+   *   statement is not a simple insert, update, delete or truncate.
+   */
+  static String writeTable(String sql) {
+    Matcher matcher = WRITE.matcher(sql);
+    return matcher.find() ? normalize(matcher.group(1)) : null;
+  }
+
+  /**
+   * Notify listeners of a write.
+   *
+   * @param table
+   *   Table name (as used in SQL).
+   * @param id
+   *   Id of the row or null for any row.
+   */
+  static void written(String table, Object id) {
+    if (listeners.isEmpty()) {
+      return;
+    }
+    String normalized = normalize(table);
+    for (WokeWriteListener listener : listeners) {
+      listener.written(normalized, id);
+    }
+  }
+
+  private WokeWriteTracker() {}
+}
@@ -1,8 +1,15 @@
 package moar.awake;
 
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+import moar.sugar.thread.MoarAsyncProvider;
+import moar.sugar.thread.MoarThreadReport;
 
 /**
  * Context for when we have a session.
@@ -12,13 +19,64 @@ import java.util.function.Consumer;
  *   Row type
  */
 public interface WokenRepository<Row> {
+  /**
+   * @param provider
+   *   Provider that runs the calls.
+   * @return asynchronous view of this repository
+   */
+  AsyncWokenRepository<Row> async(MoarAsyncProvider provider);
+
+  /**
+   * Start a write-behind buffer for this repository.
+   *
+   * @param options
+   *   Buffer options
+   * @return buffered view of this repository (close it to write the rest)
+   */
+  BufferedWokenRepository<Row> buffered(WokeBufferOptions options);
+
+  /**
+   * Serve <code>id(...).find()</code> from a row cache.
+   *
+   * @param cache
+   *   Cache to use, may be shared by repositories.
+   * @return repository that uses the cache
+   */
+  WokenRepository<Row> cached(WokeRowCache cache);
+
   Row define();
 
   Row define(Consumer<Row> row);
 
   void delete(Row row);
 
-  void delete(String where, Object... params);
+  /**
+   * Delete rows.
+   * <p>
+   * A <code>where ...</code> clause is run as a single delete statement.
+   *
+   * @param where
+   *   Where clause (or tableish)
+   * @param params
+   *   Parameters
+   * @return number of rows deleted
+   */
+  int delete(String where, Object... params);
+
+  /**
+   * Stream rows to a CSV file with a header of column names.
+   *
+   * @param writer
+   *   Writer (flushed but not closed)
+   * @param where
+   *   Where clause (or tableish)
+   * @param params
+   *   Parameters
+   * @return progress when done
+   */
+  WokeCsvProgress exportCsv(Writer writer, String where, Object... params);
+
+  WokeCsvProgress exportCsv(WokeCsvOptions options, Writer writer, String where, Object... params);
 
   WokenWithRow<Row> id(Long id);
 
@@ -26,21 +84,109 @@ public interface WokenRepository<Row> {
 
   WokenWithRow<Row> id(UUID id);
 
+  /**
+   * Find rows by id with chunked <code>id in (...)</code> queries.
+   *
+   * @param ids
+   *   Ids (<code>Long</code>, <code>String</code> or <code>UUID</code>)
+   * @return rows in the order of the ids (null for ids that are not found)
+   */
+  List<Row> ids(Collection<?> ids);
+
+  /**
+   * @param ids
+   *   Ids
+   * @param chunkSize
+   *   Maximum number of ids in each query
+   * @return rows in the order of the ids (null for ids that are not found)
+   */
+  List<Row> ids(Collection<?> ids, int chunkSize);
+
+  /**
+   * @param ids
+   *   Ids
+   * @return rows that were found keyed by id (in the order of the ids)
+   */
+  Map<Object, Row> idMap(Collection<?> ids);
+
+  /**
+   * Stream rows from a CSV file into chunked batch inserts (or upserts).
+   *
+   * @param reader
+   *   Reader for a CSV file with a header (not closed)
+   * @param options
+   *   Options
+   * @return progress when done
+   */
+  WokeCsvProgress importCsv(Reader reader, WokeCsvOptions options);
+
   Row insert(Consumer<Row> row);
 
   Row insert(Row row);
 
   void insertBatch(List<Row> rows);
 
+  void insertBatch(List<Row> rows, WokeBatchOptions options);
+
   WokeResultSet<Row> iterator(String where, Object... params);
 
+  WokeResultSet<Row> iterator(WokeFetchOptions options, String where, Object... params);
+
   List<Row> list(String where, Object... params);
 
+  /**
+   * Scan rows in parallel.
+   * <p>
+   * The id range is split into partitions that are read on their own
+   * connections through the provider (no more at once than the pool allows).
+   * The work is tracked as one <code>$$</code> activity.
+   *
+   * @param provider
+   *   Provider that runs the partitions.
+   * @param partitions
+   *   Number of partitions.
+   * @param consumer
+   *   Receives each row, called from many threads.
+   * @return report for the scan
+   */
+  MoarThreadReport scan(MoarAsyncProvider provider, int partitions, Consumer<Row> consumer);
+
+  /**
+   * Read rows a page at a time with keyset pagination.
+   *
+   * @param orderColumn
+   *   Unique column (property or column name) that orders the rows.
+   * @param pageSize
+   *   Rows in each page.
+   * @return pages
+   */
+  WokePages<Row> pages(String orderColumn, int pageSize);
+
+  /**
+   * Lazily read rows.
+   * <p>
+   * The connection is held until the stream is closed (or fully consumed) so
+   * use it in a try-with-resources block.
+   *
+   * @param where
+   *   Where clause (or tableish)
+   * @param params
+   *   Parameters
+   * @return stream of rows
+   */
+  Stream<Row> stream(String where, Object... params);
+
+  Stream<Row> stream(WokeFetchOptions options, String where, Object... params);
+
   void update(Row row);
 
   Row upsert(Consumer<Row> row);
 
   Row upsert(Row row);
 
+  void upsertBatch(List<Row> rows);
+
+  void upsertBatch(List<Row> rows, WokeBatchOptions options);
+
   WokenWithRow<Row> where(Consumer<Row> row);
 }
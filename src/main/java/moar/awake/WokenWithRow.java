@@ -2,6 +2,8 @@ package moar.awake;
 
 import java.util.List;
 import java.util.function.Consumer;
+import moar.sugar.thread.MoarAsyncProvider;
+import moar.sugar.thread.MoarThreadReport;
 
 /**
  * Interface for a context where we have a row (or part of the row).
@@ -10,7 +12,10 @@ import java.util.function.Consumer;
  * @param <Row>
  */
 public interface WokenWithRow<Row> {
-  void delete();
+  /**
+   * @return number of rows deleted by a single delete statement.
+   */
+  int delete();
 
   Row find();
 
@@ -22,6 +27,29 @@ public interface WokenWithRow<Row> {
 
   List<Row> list(String orderBy);
 
+  /**
+   * @return pages of the matching rows.
+   * @see WokenRepository#pages(String, int)
+   */
+  WokePages<Row> pages(String orderColumn, int pageSize);
+
+  /**
+   * @return report for a parallel scan of the matching rows.
+   * @see WokenRepository#scan(MoarAsyncProvider, int, Consumer)
+   */
+  MoarThreadReport scan(MoarAsyncProvider provider, int partitions, Consumer<Row> consumer);
+
+  /**
+   * Update every matching row with a single statement.
+   * <p>
+   * Columns given a value by the updator are set, the id is never changed.
+   *
+   * @param updator
+   *   Sets the values to update.
+   * @return number of rows updated
+   */
+  int updateAll(Consumer<Row> updator);
+
   Row upsert();
 
   Row upsert(Consumer<Row> row);